@@ -3,19 +3,60 @@ package chat;
 import config.DatabaseConfig;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.SwingUtilities;
 
 public class ChatClient {
+    // Shared by all clients; each heartbeat only queues a tiny write
+    private static final ScheduledExecutorService HEARTBEATS = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "chat-heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+
     private Socket socket;
     private BufferedReader reader;
-    private PrintWriter writer;
+    private DataInputStream frameInput;
+    private OutputStream output;
     private String username;
     private ChatMessageListener messageListener;
-    private boolean connected;
+    private volatile boolean connected;
+    // True once the server acknowledged binary framing
+    private volatile boolean binary;
+    // True if the server's ack said it stores the messages it routes
+    private volatile boolean persisting;
+    // Text messages that arrived while the handshake was still in progress
+    private final List<String> earlyLines = new ArrayList<>();
+    private volatile long lastReadNanos;
+    private ScheduledFuture<?> heartbeat;
 
     public interface ChatMessageListener {
         void onMessageReceived(String sender, String receiver, String message);
+
+        // The server stored a message this client sent to receiver under messageId
+        default void onMessageStored(String receiver, int messageId) {
+        }
+
+        // The server routed a message this client sent to receiver but will not store it
+        default void onMessageRejected(String receiver, String message) {
+        }
+
+        // Watched users that came online (true) or went offline (false)
+        default void onPresenceChanged(Map<String, Boolean> changes) {
+        }
+
+        default void onRoomMessage(String room, String sender, String message) {
+        }
     }
 
     public ChatClient(String username) {
@@ -25,11 +66,23 @@ public class ChatClient {
     public boolean connect() {
         try {
             socket = new Socket(DatabaseConfig.RMI_HOST, DatabaseConfig.CHAT_SERVER_PORT);
-            reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            writer = new PrintWriter(socket.getOutputStream(), true);
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            output = new BufferedOutputStream(socket.getOutputStream());
+
+            // Send username to server, then ask for binary framing
+            writeLine(username);
+            writeLine(ChatFrame.HELLO);
+            binary = awaitHandshake(input);
 
-            // Send username to server
-            writer.println(username);
+            if (binary) {
+                frameInput = new DataInputStream(input);
+                lastReadNanos = System.nanoTime();
+                heartbeat = HEARTBEATS.scheduleAtFixedRate(this::sendHeartbeat,
+                        DatabaseConfig.CHAT_HEARTBEAT_INTERVAL_MS, DatabaseConfig.CHAT_HEARTBEAT_INTERVAL_MS,
+                        TimeUnit.MILLISECONDS);
+            } else {
+                reader = new BufferedReader(new InputStreamReader(input, ChatFrame.TEXT_CHARSET));
+            }
             connected = true;
 
             // Start listening for messages
@@ -42,29 +95,151 @@ public class ChatClient {
         }
     }
 
+    // Servers without framing support never answer HELLO, so fall back to text after a timeout
+    private boolean awaitHandshake(InputStream input) throws IOException {
+        socket.setSoTimeout(DatabaseConfig.CHAT_HANDSHAKE_TIMEOUT_MS);
+        try {
+            String line;
+            while ((line = ChatFrame.readLine(input, ChatFrame.MAX_LINE_LENGTH)) != null) {
+                if (line.startsWith(ChatFrame.HELLO_ACK)) {
+                    persisting = line.equals(ChatFrame.HELLO_ACK + ChatFrame.PERSISTING);
+                    return true;
+                }
+                earlyLines.add(line);
+            }
+            throw new EOFException("Chat server closed the connection during handshake");
+        } catch (SocketTimeoutException e) {
+            return false;
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+
     public void disconnect() {
         connected = false;
+        if (heartbeat != null) {
+            heartbeat.cancel(false);
+            heartbeat = null;
+        }
         try {
             // Close resources in reverse order of creation
-            if (writer != null) {
-                writer.println("DISCONNECT:" + username); // Notify server
-                writer.close();
+            if (output != null) {
+                // Notify server
+                if (binary) {
+                    writeFrame(ChatFrame.disconnect(username));
+                } else {
+                    writeLine("DISCONNECT:" + username);
+                }
+                output.close();
             }
             if (reader != null) reader.close();
+            if (frameInput != null) frameInput.close();
             if (socket != null) socket.close();
         } catch (IOException e) {
             System.err.println("Error disconnecting: " + e.getMessage());
         } finally {
-            writer = null;
+            output = null;
             reader = null;
+            frameInput = null;
             socket = null;
         }
     }
 
-    public void sendMessage(String receiver, String message) {
-        if (writer != null && connected) {
-            writer.println(receiver + ":" + message);
+    /**
+     * True when the server said in its handshake that it stores the messages
+     * it routes, so callers must not save them again. Such a server reports
+     * every message it then fails to store through onMessageRejected.
+     * Servers that only speak the text protocol never store.
+     */
+    public boolean isPersistingOnServer() {
+        return connected && binary && persisting;
+    }
+
+    // Returns false if the message could not be handed to the server
+    public boolean sendMessage(String receiver, String message) {
+        if (output != null && connected) {
+            try {
+                if (binary) {
+                    writeFrame(ChatFrame.message(username, receiver, message));
+                } else {
+                    writeLine(receiver + ":" + message);
+                }
+                return true;
+            } catch (IOException e) {
+                System.err.println("Error sending message: " + e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Asks the server for presence updates about these users, replacing any
+     * earlier list. The current state arrives first, then changes as they
+     * happen. Returns false if the server does not support presence.
+     */
+    public boolean watchPresence(Collection<String> usernames) {
+        return sendControlFrame(ChatFrame.watch(usernames), "watching presence");
+    }
+
+    // Rooms are open: anyone can join by name, and the first join creates the room
+    public boolean joinRoom(String room) {
+        return sendControlFrame(ChatFrame.roomJoin(room), "joining room");
+    }
+
+    public boolean leaveRoom(String room) {
+        return sendControlFrame(ChatFrame.roomLeave(room), "leaving room");
+    }
+
+    // Delivered to every other member currently online; the sender does not get a copy
+    public boolean sendRoomMessage(String room, String message) {
+        return sendControlFrame(ChatFrame.roomMessage(room, message), "sending room message");
+    }
+
+    // Presence and rooms need frames; servers that only speak text do not have them
+    private boolean sendControlFrame(ChatFrame frame, String action) {
+        if (output != null && connected && binary) {
+            try {
+                writeFrame(frame);
+                return true;
+            } catch (IOException e) {
+                System.err.println("Error " + action + ": " + e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    // The server answers every ping, so a long silence means the connection is dead
+    private void sendHeartbeat() {
+        if (!connected) {
+            return;
         }
+        long silentMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastReadNanos);
+        if (silentMillis >= DatabaseConfig.CHAT_IDLE_TIMEOUT_MS) {
+            System.err.println("Chat server stopped responding; disconnecting");
+            disconnect();
+            return;
+        }
+        try {
+            writeFrame(ChatFrame.PING);
+        } catch (IOException e) {
+            System.err.println("Error sending heartbeat: " + e.getMessage());
+        }
+    }
+
+    private synchronized void writeLine(String line) throws IOException {
+        output.write((line + System.lineSeparator()).getBytes(ChatFrame.TEXT_CHARSET));
+        output.flush();
+    }
+
+    private synchronized void writeFrame(ChatFrame frame) throws IOException {
+        if (output == null) {
+            throw new IOException("Not connected");
+        }
+        ByteBuffer encoded = frame.encoded();
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        output.write(bytes);
+        output.flush();
     }
 
     public void setMessageListener(ChatMessageListener listener) {
@@ -73,6 +248,16 @@ public class ChatClient {
 
     private void listenForMessages() {
         try {
+            for (String line : earlyLines) {
+                dispatchTextLine(line);
+            }
+            earlyLines.clear();
+
+            if (binary) {
+                listenForFrames();
+                return;
+            }
+
             String message;
             while (connected && (message = reader.readLine()) != null) {
                 if (!connected) break; // Additional check
@@ -83,13 +268,7 @@ public class ChatClient {
                     break;
                 }
 
-                // Message format: sender:receiver:message
-                String[] parts = message.split(":", 3);
-                if (parts.length == 3 && messageListener != null) {
-                    SwingUtilities.invokeLater(() -> {
-                        messageListener.onMessageReceived(parts[0], parts[1], parts[2]);
-                    });
-                }
+                dispatchTextLine(message);
             }
         } catch (IOException e) {
             if (connected) {
@@ -97,4 +276,77 @@ public class ChatClient {
             }
         }
     }
+
+    private void listenForFrames() throws IOException {
+        ChatFrame frame;
+        while (connected && (frame = ChatFrame.read(frameInput)) != null) {
+            lastReadNanos = System.nanoTime();
+            if (frame.type() == ChatFrame.TYPE_DISCONNECT) {
+                disconnect();
+                break;
+            }
+            if (frame.type() == ChatFrame.TYPE_MESSAGE) {
+                dispatch(frame.sender(), frame.receiver(), frame.payloadText());
+            } else if (frame.type() == ChatFrame.TYPE_ACK) {
+                dispatchAck(frame.receiver(), frame.payloadText());
+            } else if (frame.type() == ChatFrame.TYPE_NACK) {
+                dispatchRejected(frame.receiver(), frame.payloadText());
+            } else if (frame.type() == ChatFrame.TYPE_PRESENCE) {
+                dispatchPresence(frame.payloadText());
+            } else if (frame.type() == ChatFrame.TYPE_ROOM_MESSAGE) {
+                dispatchRoomMessage(frame.receiver(), frame.sender(), frame.payloadText());
+            }
+        }
+    }
+
+    private void dispatchTextLine(String message) {
+        // Message format: sender:receiver:message
+        String[] parts = message.split(":", 3);
+        if (parts.length == 3) {
+            dispatch(parts[0], parts[1], parts[2]);
+        }
+    }
+
+    private void dispatchAck(String receiver, String messageId) {
+        if (messageListener != null) {
+            try {
+                int id = Integer.parseInt(messageId);
+                SwingUtilities.invokeLater(() -> messageListener.onMessageStored(receiver, id));
+            } catch (NumberFormatException e) {
+                System.err.println("Ignoring malformed ack: " + messageId);
+            }
+        }
+    }
+
+    private void dispatchRejected(String receiver, String message) {
+        if (messageListener != null) {
+            SwingUtilities.invokeLater(() -> messageListener.onMessageRejected(receiver, message));
+        }
+    }
+
+    private void dispatchPresence(String payload) {
+        if (messageListener != null) {
+            Map<String, Boolean> changes = new LinkedHashMap<>();
+            for (String change : payload.split("\n")) {
+                if (change.length() > 1) {
+                    changes.put(change.substring(1), change.charAt(0) == '+');
+                }
+            }
+            SwingUtilities.invokeLater(() -> messageListener.onPresenceChanged(changes));
+        }
+    }
+
+    private void dispatchRoomMessage(String room, String sender, String message) {
+        if (messageListener != null) {
+            SwingUtilities.invokeLater(() -> messageListener.onRoomMessage(room, sender, message));
+        }
+    }
+
+    private void dispatch(String sender, String receiver, String message) {
+        if (messageListener != null) {
+            SwingUtilities.invokeLater(() -> {
+                messageListener.onMessageReceived(sender, receiver, message);
+            });
+        }
+    }
 }
@@ -0,0 +1,25 @@
+package chat;
+
+/**
+ * A connected chat user, independent of the server engine serving it.
+ * sendFrame may be called from any thread; it only queues the frame, so a
+ * slow receiver never blocks its sender.
+ */
+interface ChatConnection {
+    String getUsername();
+
+    // Delivers a frame in whichever protocol this connection negotiated
+    void sendFrame(ChatFrame frame);
+
+    void close();
+
+    boolean isClosed();
+
+    ConnectionStats getStats();
+
+    // System.nanoTime() when the client last sent anything
+    long lastReadNanos();
+
+    // True once the client negotiated frames; legacy text clients never send heartbeats
+    boolean sendsHeartbeats();
+}
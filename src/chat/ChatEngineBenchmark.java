@@ -0,0 +1,150 @@
+package chat;
+
+import config.DatabaseConfig;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Rough in-process comparison of the chat server engines at increasing
+ * connection counts. Every client sends messages to itself through the
+ * server and waits for each one to come back.
+ *
+ * Usage: java chat.ChatEngineBenchmark [engines] [connectionCounts] [roundTripsPerClient]
+ * e.g.   java chat.ChatEngineBenchmark thread,virtual,nio 100,1000,5000 20
+ */
+public class ChatEngineBenchmark {
+    private static final int DRIVER_THREADS = 32;
+
+    public static void main(String[] args) throws Exception {
+        String[] engines = (args.length > 0 ? args[0] : "thread,virtual,nio").split(",");
+        int[] counts = Arrays.stream((args.length > 1 ? args[1] : "100,1000,5000").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        int roundTrips = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        System.out.printf("%-8s %8s %10s %12s %10s %10s %12s%n",
+                "engine", "conns", "+threads", "+heap MB", "p50 us", "p99 us", "msgs/s");
+        int port = DatabaseConfig.CHAT_SERVER_PORT + 100;
+        for (String engine : engines) {
+            for (int count : counts) {
+                run(engine, count, roundTrips, port++);
+            }
+        }
+    }
+
+    private static void run(String engine, int connections, int roundTrips, int port) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        // No message store, so the numbers measure the engines and not the database
+        ChatServer server = new ChatServer(engine, port, DatabaseConfig.CHAT_OVERFLOW_POLICY, null);
+        Thread serverThread = new Thread(server::start, "bench-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        waitForPort(port);
+
+        System.gc();
+        int threadsBefore = threads.getThreadCount();
+        long heapBefore = usedHeap();
+
+        List<BenchClient> clients = new ArrayList<>();
+        try {
+            for (int i = 0; i < connections; i++) {
+                clients.add(new BenchClient(port, "bench-" + i));
+            }
+            while (server.getClientCount() < connections) {
+                Thread.sleep(10);
+            }
+
+            int serverThreads = threads.getThreadCount() - threadsBefore;
+            long heapMb = (usedHeap() - heapBefore) / (1024 * 1024);
+
+            long[] latencies = new long[connections * roundTrips];
+            ExecutorService driver = Executors.newFixedThreadPool(DRIVER_THREADS);
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < DRIVER_THREADS; t++) {
+                int offset = t;
+                futures.add(driver.submit(() -> {
+                    for (int c = offset; c < clients.size(); c += DRIVER_THREADS) {
+                        for (int r = 0; r < roundTrips; r++) {
+                            latencies[c * roundTrips + r] = clients.get(c).roundTrip();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long elapsed = System.nanoTime() - start;
+            driver.shutdown();
+
+            Arrays.sort(latencies);
+            System.out.printf("%-8s %8d %10d %12d %10d %10d %12.0f%n",
+                    engine, connections, serverThreads, heapMb,
+                    latencies[latencies.length / 2] / 1000,
+                    latencies[(int) (latencies.length * 0.99)] / 1000,
+                    latencies.length / (elapsed / 1e9));
+        } finally {
+            for (BenchClient client : clients) {
+                client.close();
+            }
+            server.stop();
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void waitForPort(int port) throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            try {
+                // The probe never sends a username, so the server just drops it
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("Chat server did not start on port " + port);
+    }
+
+    private static final class BenchClient {
+        private final Socket socket;
+        private final BufferedReader reader;
+        private final PrintWriter writer;
+        private final String username;
+
+        BenchClient(int port, String username) throws IOException {
+            this.socket = new Socket("localhost", port);
+            this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            this.writer = new PrintWriter(socket.getOutputStream(), true);
+            this.username = username;
+            writer.println(username);
+        }
+
+        long roundTrip() throws IOException {
+            long start = System.nanoTime();
+            writer.println(username + ":ping");
+            if (reader.readLine() == null) {
+                throw new EOFException("Server closed connection for " + username);
+            }
+            return System.nanoTime() - start;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
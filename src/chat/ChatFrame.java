@@ -0,0 +1,333 @@
+package chat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Binary chat frame (protocol version 1):
+ *
+ *   int32  length of everything after this field
+ *   byte   version
+ *   byte   type
+ *   uint16 sender length,   sender bytes (UTF-8)
+ *   uint16 receiver length, receiver bytes (UTF-8)
+ *   payload bytes (UTF-8) up to the end of the frame
+ *
+ * A client opts in by sending HELLO as the line right after its username and
+ * waiting for HELLO_ACK; from then on both directions use frames. A server
+ * that stores the messages it routes appends PERSISTING to the ack, and
+ * answers each message with an ACK once it is stored or a NACK if it will
+ * not be. Clients that never send HELLO keep the newline-delimited text
+ * protocol.
+ *
+ * Frames are immutable views over their encoded bytes. Fields are located by
+ * offset and only decoded to Strings when asked for, so relaying a frame
+ * never decodes or re-encodes the payload.
+ */
+final class ChatFrame {
+    static final int VERSION = 1;
+    static final String HELLO = "@@PROTO:" + VERSION;
+    static final String HELLO_ACK = HELLO + " OK";
+    static final String PERSISTING = " PERSIST";
+    // A text client's last line on logout, followed by its username
+    static final String TEXT_DISCONNECT = "DISCONNECT:";
+
+    static final byte TYPE_MESSAGE = 1;
+    static final byte TYPE_DISCONNECT = 2;
+    // Server to sender: the message to receiver is stored; payload is its id in decimal
+    static final byte TYPE_ACK = 3;
+    // Client heartbeat; the server answers every PING with a PONG
+    static final byte TYPE_PING = 4;
+    static final byte TYPE_PONG = 5;
+    // Client to server: newline-separated usernames to get presence updates for, replacing any earlier list
+    static final byte TYPE_WATCH = 6;
+    // Server to client: one line per user, '+' if they came online and '-' if they went offline
+    static final byte TYPE_PRESENCE = 7;
+    // Group rooms: the receiver is the room name; the server stamps the sender on everything it relays
+    static final byte TYPE_ROOM_JOIN = 8;
+    static final byte TYPE_ROOM_LEAVE = 9;
+    static final byte TYPE_ROOM_MESSAGE = 10;
+    // Server to sender: the message to receiver was routed but will not be stored; payload is its text
+    static final byte TYPE_NACK = 11;
+    // Never sent as a frame; queued to mark where the HELLO_ACK line goes in the outbound stream
+    static final byte TYPE_HANDSHAKE_ACK = 0;
+
+    static final int LENGTH_PREFIX = 4;
+    // version + type + two uint16 lengths
+    static final int MIN_BODY_LENGTH = 6;
+    static final int MAX_BODY_LENGTH = 1024 * 1024;
+    // A text line longer than this is treated as a protocol violation
+    static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    // Charset of the legacy text protocol (PrintWriter/InputStreamReader defaults)
+    static final Charset TEXT_CHARSET = Charset.defaultCharset();
+
+    private static final byte[] EMPTY = new byte[0];
+
+    static final ChatFrame HANDSHAKE_ACK = encode(TYPE_HANDSHAKE_ACK, EMPTY, EMPTY, ByteBuffer.wrap(EMPTY));
+    static final ChatFrame HANDSHAKE_ACK_PERSISTING = encode(TYPE_HANDSHAKE_ACK, EMPTY, EMPTY,
+            ByteBuffer.wrap(utf8(PERSISTING)));
+    static final ChatFrame PING = encode(TYPE_PING, EMPTY, EMPTY, ByteBuffer.wrap(EMPTY));
+    static final ChatFrame PONG = encode(TYPE_PONG, EMPTY, EMPTY, ByteBuffer.wrap(EMPTY));
+
+    private final ByteBuffer buffer;
+    private final byte type;
+    private final int senderOffset;
+    private final int senderLength;
+    private final int receiverOffset;
+    private final int receiverLength;
+    private final int payloadOffset;
+
+    private ChatFrame(ByteBuffer buffer, byte type, int senderOffset, int senderLength,
+                      int receiverOffset, int receiverLength, int payloadOffset) {
+        this.buffer = buffer;
+        this.type = type;
+        this.senderOffset = senderOffset;
+        this.senderLength = senderLength;
+        this.receiverOffset = receiverOffset;
+        this.receiverLength = receiverLength;
+        this.payloadOffset = payloadOffset;
+    }
+
+    /** Parses a complete frame (length prefix included) without copying it. */
+    static ChatFrame parse(ByteBuffer frame) throws IOException {
+        ByteBuffer buf = frame.slice();
+        if (buf.remaining() < LENGTH_PREFIX + MIN_BODY_LENGTH) {
+            throw new IOException("Truncated chat frame");
+        }
+        int bodyLength = buf.getInt(0);
+        if (bodyLength < MIN_BODY_LENGTH || bodyLength > MAX_BODY_LENGTH || bodyLength + LENGTH_PREFIX != buf.remaining()) {
+            throw new IOException("Invalid chat frame length " + bodyLength);
+        }
+        int version = buf.get(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported chat frame version " + version);
+        }
+        byte type = buf.get(5);
+
+        int senderLength = buf.getShort(6) & 0xFFFF;
+        int senderOffset = 8;
+        int receiverLengthAt = senderOffset + senderLength;
+        if (receiverLengthAt + 2 > buf.limit()) {
+            throw new IOException("Malformed chat frame");
+        }
+        int receiverLength = buf.getShort(receiverLengthAt) & 0xFFFF;
+        int receiverOffset = receiverLengthAt + 2;
+        int payloadOffset = receiverOffset + receiverLength;
+        if (payloadOffset > buf.limit()) {
+            throw new IOException("Malformed chat frame");
+        }
+        return new ChatFrame(buf.asReadOnlyBuffer(), type, senderOffset, senderLength,
+                receiverOffset, receiverLength, payloadOffset);
+    }
+
+    /**
+     * Returns the total frame size if the buffer holds a complete frame at its
+     * position, 0 if more bytes are needed, or throws if the length is invalid.
+     */
+    static int completeFrameLength(ByteBuffer in) throws IOException {
+        if (in.remaining() < LENGTH_PREFIX) {
+            return 0;
+        }
+        int bodyLength = in.getInt(in.position());
+        if (bodyLength < MIN_BODY_LENGTH || bodyLength > MAX_BODY_LENGTH) {
+            throw new IOException("Invalid chat frame length " + bodyLength);
+        }
+        return in.remaining() >= LENGTH_PREFIX + bodyLength ? LENGTH_PREFIX + bodyLength : 0;
+    }
+
+    /** Reads one frame from a blocking stream; returns null at end of stream. */
+    static ChatFrame read(DataInputStream in) throws IOException {
+        int bodyLength;
+        try {
+            bodyLength = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (bodyLength < MIN_BODY_LENGTH || bodyLength > MAX_BODY_LENGTH) {
+            throw new IOException("Invalid chat frame length " + bodyLength);
+        }
+        byte[] bytes = new byte[LENGTH_PREFIX + bodyLength];
+        ByteBuffer.wrap(bytes).putInt(bodyLength);
+        in.readFully(bytes, LENGTH_PREFIX, bodyLength);
+        return parse(ByteBuffer.wrap(bytes));
+    }
+
+    static ChatFrame message(String sender, String receiver, String text) {
+        return encode(TYPE_MESSAGE, utf8(sender), utf8(receiver), ByteBuffer.wrap(utf8(text)));
+    }
+
+    static ChatFrame disconnect(String sender) {
+        return encode(TYPE_DISCONNECT, utf8(sender), EMPTY, ByteBuffer.wrap(EMPTY));
+    }
+
+    static ChatFrame ack(String receiver, int messageId) {
+        return encode(TYPE_ACK, EMPTY, utf8(receiver), ByteBuffer.wrap(utf8(Integer.toString(messageId))));
+    }
+
+    static ChatFrame nack(String receiver, String text) {
+        return encode(TYPE_NACK, EMPTY, utf8(receiver), ByteBuffer.wrap(utf8(text)));
+    }
+
+    static ChatFrame roomJoin(String room) {
+        return encode(TYPE_ROOM_JOIN, EMPTY, utf8(room), ByteBuffer.wrap(EMPTY));
+    }
+
+    static ChatFrame roomLeave(String room) {
+        return encode(TYPE_ROOM_LEAVE, EMPTY, utf8(room), ByteBuffer.wrap(EMPTY));
+    }
+
+    static ChatFrame roomMessage(String room, String text) {
+        return encode(TYPE_ROOM_MESSAGE, EMPTY, utf8(room), ByteBuffer.wrap(utf8(text)));
+    }
+
+    static ChatFrame watch(Collection<String> usernames) {
+        return encode(TYPE_WATCH, EMPTY, EMPTY, ByteBuffer.wrap(utf8(String.join("\n", usernames))));
+    }
+
+    static ChatFrame presence(Map<String, Boolean> changes) {
+        StringBuilder payload = new StringBuilder();
+        for (Map.Entry<String, Boolean> change : changes.entrySet()) {
+            if (payload.length() > 0) {
+                payload.append('\n');
+            }
+            payload.append(change.getValue() ? '+' : '-').append(change.getKey());
+        }
+        return encode(TYPE_PRESENCE, EMPTY, EMPTY, ByteBuffer.wrap(utf8(payload.toString())));
+    }
+
+    /** Same receiver and payload, stamped with the given sender. */
+    ChatFrame withSender(byte[] sender) {
+        ByteBuffer receiver = slice(receiverOffset, receiverLength);
+        byte[] receiverBytes = new byte[receiverLength];
+        receiver.get(receiverBytes);
+        return encode(type, sender, receiverBytes, payload());
+    }
+
+    private static ChatFrame encode(byte type, byte[] sender, byte[] receiver, ByteBuffer payload) {
+        if (sender.length > 0xFFFF || receiver.length > 0xFFFF) {
+            throw new IllegalArgumentException("Chat id too long");
+        }
+        int bodyLength = MIN_BODY_LENGTH + sender.length + receiver.length + payload.remaining();
+        if (bodyLength > MAX_BODY_LENGTH) {
+            throw new IllegalArgumentException("Chat message too long");
+        }
+        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + bodyLength);
+        buf.putInt(bodyLength);
+        buf.put((byte) VERSION);
+        buf.put(type);
+        buf.putShort((short) sender.length);
+        buf.put(sender);
+        buf.putShort((short) receiver.length);
+        buf.put(receiver);
+        buf.put(payload.duplicate());
+        buf.flip();
+
+        int senderOffset = 8;
+        int receiverOffset = senderOffset + sender.length + 2;
+        return new ChatFrame(buf.asReadOnlyBuffer(), type, senderOffset, sender.length,
+                receiverOffset, receiver.length, receiverOffset + receiver.length);
+    }
+
+    byte type() {
+        return type;
+    }
+
+    String sender() {
+        return decode(senderOffset, senderLength);
+    }
+
+    String receiver() {
+        return decode(receiverOffset, receiverLength);
+    }
+
+    String payloadText() {
+        return decode(payloadOffset, buffer.limit() - payloadOffset);
+    }
+
+    ByteBuffer payload() {
+        return slice(payloadOffset, buffer.limit() - payloadOffset);
+    }
+
+    /** A fresh read-only view of the whole encoded frame, ready to be written. */
+    ByteBuffer encoded() {
+        return buffer.duplicate();
+    }
+
+    /**
+     * Line for legacy text clients. Line breaks in the payload would split the
+     * message, so they are flattened to spaces.
+     */
+    String toTextLine() {
+        String text = payloadText().replace('\r', ' ').replace('\n', ' ');
+        return sender() + ":" + receiver() + ":" + text;
+    }
+
+    /**
+     * Bytes to put on the wire for this frame. Senders queue frames without
+     * knowing the protocol; the connection's writer picks the encoding, and
+     * switches to frames once it has written the handshake ack. Returns null
+     * for frames the text protocol cannot carry.
+     */
+    ByteBuffer render(boolean binary) {
+        if (type == TYPE_HANDSHAKE_ACK) {
+            // The payload is the suffix of the ack line
+            return encodeLine(HELLO_ACK + payloadText());
+        }
+        if (binary) {
+            return encoded();
+        }
+        return type == TYPE_MESSAGE ? encodeLine(toTextLine()) : null;
+    }
+
+    static ByteBuffer encodeLine(String line) {
+        return TEXT_CHARSET.encode(line + System.lineSeparator());
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+    private String decode(int offset, int length) {
+        return StandardCharsets.UTF_8.decode(slice(offset, length)).toString();
+    }
+
+    static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads one text line byte by byte, so a buffered stream can switch to
+     * frames right after the handshake without a Reader having read ahead.
+     * Returns null at end of stream.
+     */
+    static String readLine(InputStream in, int maxLength) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                return stripCarriageReturn(line.toString(TEXT_CHARSET.name()));
+            }
+            if (line.size() >= maxLength) {
+                throw new IOException("Chat line too long");
+            }
+            line.write(b);
+        }
+        return line.size() > 0 ? stripCarriageReturn(line.toString(TEXT_CHARSET.name())) : null;
+    }
+
+    private static String stripCarriageReturn(String line) {
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+}
@@ -0,0 +1,181 @@
+package chat;
+
+import config.DatabaseConfig;
+import models.Message;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Client-side history cache: one append-only file per conversation holding
+ * a contiguous run of the newest messages, oldest first. Each record is
+ *
+ *   int32 record length, int32 id, int64 epoch second (UTC), int32 nanos,
+ *   then sender, receiver and text as int32 length + UTF-8 bytes.
+ *
+ * A record torn by a crash is dropped on the next load. Failures are logged
+ * and treated as an empty cache, so the server stays the source of truth.
+ */
+public class ChatHistoryCache {
+    private final Path directory;
+
+    public ChatHistoryCache(String owner) {
+        this(Paths.get(System.getProperty("user.home"), DatabaseConfig.CHAT_CACHE_DIR, fileName(owner)));
+    }
+
+    public ChatHistoryCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the cached messages with the given partner, oldest first. Keeps
+     * at most CHAT_CACHE_MAX_MESSAGES, compacting the file when it grew past that.
+     */
+    public List<Message> load(String partner) {
+        Path file = fileFor(partner);
+        List<Message> messages = new ArrayList<>();
+        if (!Files.exists(file)) {
+            return messages;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            long validLength = 0;
+            long fileLength = channel.size();
+            while (validLength + 4 <= fileLength) {
+                int recordLength = in.readInt();
+                if (recordLength <= 0 || validLength + 4 + recordLength > fileLength) {
+                    break;
+                }
+                byte[] record = new byte[recordLength];
+                in.readFully(record);
+                messages.add(decode(ByteBuffer.wrap(record)));
+                validLength += 4 + recordLength;
+            }
+            if (validLength < fileLength) {
+                channel.truncate(validLength);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Discarding unreadable chat cache " + file + ": " + e.getMessage());
+            clear(partner);
+            return new ArrayList<>();
+        }
+
+        int max = DatabaseConfig.CHAT_CACHE_MAX_MESSAGES;
+        if (messages.size() > max) {
+            messages = new ArrayList<>(messages.subList(messages.size() - max, messages.size()));
+            replace(partner, messages);
+        }
+        return messages;
+    }
+
+    /** Appends messages newer than everything already cached, oldest first. */
+    public void append(String partner, List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        write(partner, messages, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /** Starts the conversation's cache over with the given messages. */
+    public void replace(String partner, List<Message> messages) {
+        write(partner, messages, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    public void clear(String partner) {
+        try {
+            Files.deleteIfExists(fileFor(partner));
+        } catch (IOException e) {
+            System.err.println("Error clearing chat cache: " + e.getMessage());
+        }
+    }
+
+    private void write(String partner, List<Message> messages, StandardOpenOption... options) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            for (Message message : messages) {
+                byte[] record = encode(message);
+                out.writeInt(record.length);
+                out.write(record);
+            }
+            Files.createDirectories(directory);
+            // One write per batch, so a crash tears at most the last record
+            try (FileChannel channel = FileChannel.open(fileFor(partner), options)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing chat cache: " + e.getMessage());
+            clear(partner);
+        }
+    }
+
+    private static byte[] encode(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        LocalDateTime timestamp = message.getTimestamp() != null ? message.getTimestamp() : LocalDateTime.now();
+        out.writeInt(message.getId());
+        out.writeLong(timestamp.toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(timestamp.getNano());
+        writeString(out, message.getSenderUsername());
+        writeString(out, message.getReceiverUsername());
+        writeString(out, message.getMessage());
+        return bytes.toByteArray();
+    }
+
+    private static Message decode(ByteBuffer record) {
+        Message message = new Message();
+        message.setId(record.getInt());
+        long epochSecond = record.getLong();
+        int nanos = record.getInt();
+        message.setTimestamp(LocalDateTime.ofEpochSecond(epochSecond, nanos, ZoneOffset.UTC));
+        message.setSenderUsername(readString(record));
+        message.setReceiverUsername(readString(record));
+        message.setMessage(readString(record));
+        return message;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer record) {
+        int length = record.getInt();
+        String value = new String(record.array(), record.arrayOffset() + record.position(), length, StandardCharsets.UTF_8);
+        record.position(record.position() + length);
+        return value;
+    }
+
+    private Path fileFor(String partner) {
+        return directory.resolve(fileName(partner) + ".log");
+    }
+
+    // Usernames are user input; keep letters, digits, '-' and '_' and escape the rest
+    private static String fileName(String username) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : username.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_') {
+                sb.append(c);
+            } else {
+                sb.append('%').append(String.format("%02X", b & 0xFF));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,56 @@
+package chat;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory membership of one group room. Posting only reads: membership
+ * checks hit a concurrent set and fan-out walks an array snapshot that is
+ * replaced, never modified, when someone joins or leaves.
+ */
+final class ChatRoom {
+    static final int MAX_NAME_LENGTH = 50;
+
+    private final String name;
+    private final Set<String> members = ConcurrentHashMap.newKeySet();
+    private volatile String[] snapshot;
+
+    ChatRoom(String name, Collection<String> members) {
+        this.name = name;
+        this.members.addAll(members);
+        this.snapshot = this.members.toArray(new String[0]);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    boolean isMember(String username) {
+        return members.contains(username);
+    }
+
+    int size() {
+        return members.size();
+    }
+
+    String[] members() {
+        return snapshot;
+    }
+
+    synchronized boolean add(String username) {
+        if (!members.add(username)) {
+            return false;
+        }
+        snapshot = members.toArray(new String[0]);
+        return true;
+    }
+
+    synchronized boolean remove(String username) {
+        if (!members.remove(username)) {
+            return false;
+        }
+        snapshot = members.toArray(new String[0]);
+        return true;
+    }
+}
@@ -1,38 +1,265 @@
 package chat;
 
 import config.DatabaseConfig;
+import util.HashedWheelTimer;
+import util.VirtualThreads;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.Map;
 
 public class ChatServer {
+    public static final String ENGINE_THREAD = "thread";
+    public static final String ENGINE_VIRTUAL = "virtual";
+    public static final String ENGINE_NIO = "nio";
+
+    public static final String OVERFLOW_DROP = "drop";
+    public static final String OVERFLOW_DISCONNECT = "disconnect";
+    public static final String OVERFLOW_SPILL = "spill";
+
     private ServerSocket serverSocket;
-    private Map<String, ClientHandler> clients;
-    private boolean running;
+    private NioChatEngine nioEngine;
+    private ExecutorService handlerExecutor;
+    private ThreadFactory writerThreads;
+    private Map<String, ChatConnection> clients;
+    private volatile boolean running;
+    private final String engine;
+    private final int port;
+    private final String overflowPolicy;
+    private final OfflineStore offlineStore;
+    // Mailbox reads and writes, kept off the threads that route messages; one thread keeps them in order
+    private final ExecutorService mailboxExecutor;
+    // Null when messages are not persisted by this server
+    private final MessageStore messageStore;
+    // Null when room membership only lives in memory
+    private final RoomStore roomStore;
+    // Logged in, but the client has not picked text or frames yet; messages for them wait here until the ack is queued
+    private final Map<ChatConnection, HeldFrames> awaitingHandshake = new ConcurrentHashMap<>();
+    private final Map<String, ChatRoom> rooms = new ConcurrentHashMap<>();
+    private final ExecutorService[] fanoutLanes;
+    // Null unless this server is a node of a cluster
+    private ClusterRouter cluster;
+    // Local logins and logouts not yet announced to the other cluster nodes
+    private final Set<String> clusterPresenceChanges = ConcurrentHashMap.newKeySet();
+    private final PresenceNotifier presence = new PresenceNotifier(this);
+    // One timer for all idle checks and presence batches, instead of a timer per connection
+    private HashedWheelTimer timer;
 
     public ChatServer() {
+        this(DatabaseConfig.CHAT_SERVER_ENGINE);
+    }
+
+    public ChatServer(String engine) {
+        this(engine, DatabaseConfig.CHAT_SERVER_PORT);
+    }
+
+    public ChatServer(String engine, int port) {
+        this(engine, port, DatabaseConfig.CHAT_OVERFLOW_POLICY);
+    }
+
+    public ChatServer(String engine, int port, String overflowPolicy) {
+        this(engine, port, overflowPolicy,
+                DatabaseConfig.CHAT_PERSIST_MESSAGES ? openMessageStore() : null,
+                DatabaseConfig.CHAT_PERSIST_MESSAGES ? openRoomStore() : null,
+                openOfflineStore());
+    }
+
+    // Keeps nothing on disk: no message or room store, and offline mailboxes only in memory
+    ChatServer(String engine, int port, String overflowPolicy, MessageStore messageStore) {
+        this(engine, port, overflowPolicy, messageStore, null,
+                new InMemoryOfflineStore(DatabaseConfig.CHAT_MAILBOX_MAX_PER_USER));
+    }
+
+    ChatServer(String engine, int port, String overflowPolicy, MessageStore messageStore, RoomStore roomStore,
+               OfflineStore offlineStore) {
+        if (!ENGINE_THREAD.equals(engine) && !ENGINE_VIRTUAL.equals(engine) && !ENGINE_NIO.equals(engine)) {
+            throw new IllegalArgumentException("Unknown chat server engine: " + engine);
+        }
+        if (!OVERFLOW_DROP.equals(overflowPolicy) && !OVERFLOW_DISCONNECT.equals(overflowPolicy)
+                && !OVERFLOW_SPILL.equals(overflowPolicy)) {
+            throw new IllegalArgumentException("Unknown chat overflow policy: " + overflowPolicy);
+        }
+        this.engine = engine;
+        this.port = port;
+        this.overflowPolicy = overflowPolicy;
+        this.messageStore = messageStore;
+        this.roomStore = roomStore;
+        this.fanoutLanes = new ExecutorService[DatabaseConfig.CHAT_ROOM_FANOUT_THREADS];
+        for (int i = 0; i < fanoutLanes.length; i++) {
+            fanoutLanes[i] = newFanoutLane(i);
+        }
+        this.offlineStore = offlineStore;
+        // Work handed over after stop() is discarded, since the store is closing anyway
+        this.mailboxExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "chat-mailbox");
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.DiscardPolicy());
         clients = new ConcurrentHashMap<>();
     }
 
+    private static MessageStore openMessageStore() {
+        try {
+            // The message log belongs to the RMI server, so messages for it go through the service
+            if ("log".equals(DatabaseConfig.MESSAGE_STORE_ENGINE)) {
+                return new RmiMessageStore();
+            }
+            return new JdbcMessageStore();
+        } catch (SQLException | RemoteException | NotBoundException e) {
+            System.err.println("Chat messages will not be stored: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static OfflineStore openOfflineStore() {
+        try {
+            return new MappedOfflineStore(Paths.get(System.getProperty("user.home"), DatabaseConfig.CHAT_MAILBOX_DIR));
+        } catch (IOException e) {
+            System.err.println("Offline messages will only be kept in memory: " + e.getMessage());
+            return new InMemoryOfflineStore(DatabaseConfig.CHAT_MAILBOX_MAX_PER_USER);
+        }
+    }
+
+    private static RoomStore openRoomStore() {
+        try {
+            return new JdbcRoomStore();
+        } catch (SQLException e) {
+            System.err.println("Chat room membership will not be stored: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // A full lane makes the poster wait instead of growing without bound; NIO threads cannot wait, so theirs is dropped
+    private static ExecutorService newFanoutLane(int index) {
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(DatabaseConfig.CHAT_ROOM_FANOUT_QUEUE_CAPACITY),
+                r -> {
+                    Thread t = new Thread(r, "chat-fanout-" + index);
+                    t.setDaemon(true);
+                    return t;
+                },
+                (task, executor) -> {
+                    if (NioChatEngine.isIoThread()) {
+                        System.err.println("Room lane " + index + " is full; dropping a room request");
+                    } else if (!executor.isShutdown()) {
+                        try {
+                            executor.getQueue().put(task);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Makes this server a cluster node. Must be called before start(); all
+     * nodes of the cluster share the directory and need distinct ids.
+     */
+    public void enableCluster(String nodeId, int relayPort, PresenceDirectory directory) {
+        cluster = new ClusterRouter(this, nodeId, relayPort, directory);
+    }
+
     public void start() {
+        if (cluster != null) {
+            try {
+                cluster.start();
+            } catch (IOException e) {
+                System.err.println("Error starting chat cluster relay: " + e.getMessage());
+                return;
+            }
+        }
+
+        timer = new HashedWheelTimer("chat-timer", DatabaseConfig.CHAT_TIMER_TICK_MS, TimeUnit.MILLISECONDS, 512);
+        timer.schedule(this::flushPresence, DatabaseConfig.CHAT_PRESENCE_BATCH_MS, TimeUnit.MILLISECONDS);
+
+        if (ENGINE_NIO.equals(engine)) {
+            startNio();
+            return;
+        }
+
+        if (ENGINE_VIRTUAL.equals(engine)) {
+            if (!VirtualThreads.isSupported()) {
+                System.err.println("Virtual threads need JDK 21+; handlers will run on platform threads");
+            }
+            handlerExecutor = VirtualThreads.newPerTaskExecutor("chat-client-");
+            writerThreads = VirtualThreads.factory("chat-writer-");
+        } else {
+            AtomicLong counter = new AtomicLong();
+            writerThreads = r -> {
+                Thread t = new Thread(r, "chat-writer-" + counter.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            };
+        }
+
         try {
-            serverSocket = new ServerSocket(DatabaseConfig.CHAT_SERVER_PORT);
+            serverSocket = new ServerSocket(port);
             running = true;
-            System.out.println("Chat Server started on port " + DatabaseConfig.CHAT_SERVER_PORT);
+            System.out.println("Chat Server (" + engine + ") started on port " + port);
 
             while (running) {
                 Socket clientSocket = serverSocket.accept();
-                ClientHandler clientHandler = new ClientHandler(clientSocket, this);
-                new Thread(clientHandler).start();
+                ClientHandler clientHandler = new ClientHandler(clientSocket, this, writerThreads);
+                watchIdle(clientHandler);
+                if (handlerExecutor != null) {
+                    handlerExecutor.execute(clientHandler);
+                } else {
+                    new Thread(clientHandler).start();
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Error starting chat server: " + e.getMessage());
             }
+        }
+    }
+
+    private void startNio() {
+        try {
+            nioEngine = new NioChatEngine(this, port, DatabaseConfig.CHAT_NIO_IO_THREADS);
+            running = true;
+            System.out.println("Chat Server (NIO, " + DatabaseConfig.CHAT_NIO_IO_THREADS
+                    + " I/O threads) started on port " + port);
+            nioEngine.run();
         } catch (IOException e) {
-            System.err.println("Error starting chat server: " + e.getMessage());
+            if (running) {
+                System.err.println("Error starting chat server: " + e.getMessage());
+            }
         }
     }
 
     public void stop() {
         running = false;
+        if (cluster != null) {
+            cluster.stop();
+        }
+        if (timer != null) {
+            timer.stop();
+        }
         try {
             if (serverSocket != null) {
                 serverSocket.close();
@@ -40,90 +267,718 @@ public class ChatServer {
         } catch (IOException e) {
             System.err.println("Error stopping chat server: " + e.getMessage());
         }
+        if (nioEngine != null) {
+            nioEngine.stop();
+        }
+        if (handlerExecutor != null) {
+            handlerExecutor.shutdown();
+        }
+        for (ExecutorService lane : fanoutLanes) {
+            lane.shutdown();
+        }
+        mailboxExecutor.shutdown();
+        try {
+            // Let queued mailbox writes reach the store before it closes
+            if (!mailboxExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                System.err.println("Offline mailbox writes still pending at shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (ChatConnection connection : clients.values()) {
+            connection.close();
+        }
+        if (messageStore != null) {
+            messageStore.close();
+            if (messageStore.getRejectedCount() > 0) {
+                System.err.println(messageStore.getRejectedCount() + " chat messages were delivered but not stored");
+            }
+        }
+        if (roomStore != null) {
+            roomStore.close();
+        }
+        if (offlineStore.getDroppedCount() > 0) {
+            System.err.println(offlineStore.getDroppedCount() + " offline messages were dropped undelivered");
+        }
+        offlineStore.close();
+    }
+
+    public int getClientCount() {
+        return clients.size();
     }
 
-    public void addClient(String username, ClientHandler handler) {
-        clients.put(username, handler);
+    public List<ConnectionStats> getConnectionStats() {
+        List<ConnectionStats> stats = new ArrayList<>();
+        for (ChatConnection connection : clients.values()) {
+            stats.add(connection.getStats());
+        }
+        return stats;
+    }
+
+    void addClient(String username, ChatConnection connection) {
+        awaitingHandshake.put(connection, new HeldFrames(username));
+        // A client still silent when its HELLO would have arrived is a legacy text client that only listens
+        timer.schedule(() -> handshakeDone(connection), DatabaseConfig.CHAT_HANDSHAKE_TIMEOUT_MS,
+                TimeUnit.MILLISECONDS);
+        ChatConnection previous = clients.put(username, connection);
+        if (previous != null && previous != connection) {
+            // Same user connected again; the newer connection wins
+            previous.close();
+        }
         System.out.println("User " + username + " connected. Total clients: " + clients.size());
+        if (cluster != null) {
+            cluster.userConnected(username);
+        }
+        onPresenceChanged(username);
+    }
+
+    /**
+     * Called once the line after the username has decided the protocol: the
+     * HELLO of a binary client, or a legacy client's first text line or its
+     * silence until the handshake timeout. Messages routed to the user before
+     * that were held back, since a frame queued ahead of the HELLO_ACK would
+     * be written as a text line; they are sent now, after the ack, followed
+     * by the mailbox.
+     */
+    void handshakeDone(ChatConnection connection) {
+        HeldFrames held = awaitingHandshake.remove(connection);
+        if (held != null) {
+            held.release(connection);
+            // Deliver whatever was spilled while this user was too slow or away
+            deliverOffline(connection.getUsername());
+        }
+    }
+
+    // Sends a live message, or holds it while the receiver's handshake is still going on
+    private void deliver(ChatConnection receiver, ChatFrame frame) {
+        HeldFrames held = awaitingHandshake.get(receiver);
+        if (held == null || !held.hold(frame)) {
+            receiver.sendFrame(frame);
+        }
+    }
+
+    private void deliverOffline(String username) {
+        mailboxExecutor.execute(() -> drainOffline(username));
+    }
+
+    // Runs on the mailbox thread
+    private void drainOffline(String username) {
+        ChatConnection connection = clients.get(username);
+        if (connection != null) {
+            if (awaitingHandshake.containsKey(connection)) {
+                // handshakeDone will deliver once the protocol is known
+                return;
+            }
+            for (ChatFrame frame : offlineStore.drain(username)) {
+                connection.sendFrame(frame);
+            }
+        } else if (cluster != null && cluster.isOnOtherNode(username)) {
+            // The user came back on another node
+            for (ChatFrame frame : offlineStore.drain(username)) {
+                cluster.forward(username, frame);
+            }
+        }
+    }
+
+    // The receiver is not connected anywhere, so the message waits in their mailbox
+    private void storeOffline(String receiverUsername, ChatFrame frame) {
+        mailboxExecutor.execute(() -> {
+            offlineStore.store(receiverUsername, frame);
+            // They may have logged in between the lookup and the store
+            if (isOnline(receiverUsername)) {
+                drainOffline(receiverUsername);
+            }
+        });
+    }
+
+    void removeClient(String username, ChatConnection connection) {
+        // Only remove the mapping if it still points at this connection
+        if (clients.remove(username, connection)) {
+            System.out.println("User " + username + " disconnected. Total clients: " + clients.size());
+            if (cluster != null) {
+                cluster.userDisconnected(username);
+            }
+            onPresenceChanged(username);
+        }
+        awaitingHandshake.remove(connection);
+        presence.unwatch(connection);
+    }
+
+    /** True if the user is connected to this server or, in cluster mode, to any node. */
+    public boolean isOnline(String username) {
+        return clients.containsKey(username) || (cluster != null && cluster.isOnline(username));
+    }
+
+    // Payload of a WATCH frame: the usernames the connection wants presence updates for
+    void watchPresence(ChatConnection connection, String usernames) {
+        Set<String> watched = new LinkedHashSet<>();
+        for (String username : usernames.split("\n")) {
+            if (!username.isEmpty() && watched.size() < DatabaseConfig.CHAT_PRESENCE_MAX_WATCHED) {
+                watched.add(username);
+            }
+        }
+        presence.watch(connection, watched);
+    }
+
+    private void onPresenceChanged(String username) {
+        presence.userChanged(username);
+        if (cluster != null) {
+            clusterPresenceChanges.add(username);
+        }
+    }
+
+    // Another node announced users whose presence may have changed; their state is re-read on flush
+    void onRemotePresence(String changes) {
+        for (String change : changes.split("\n")) {
+            if (change.length() > 1) {
+                String username = change.substring(1);
+                presence.userChanged(username);
+                // Hand over anything this node held while the user was offline everywhere
+                deliverOffline(username);
+            }
+        }
+    }
+
+    private void flushPresence() {
+        try {
+            if (cluster != null && !clusterPresenceChanges.isEmpty()) {
+                List<String> batch = new ArrayList<>(clusterPresenceChanges);
+                clusterPresenceChanges.removeAll(batch);
+                Map<String, Boolean> changes = new LinkedHashMap<>();
+                for (String username : batch) {
+                    changes.put(username, isOnline(username));
+                }
+                cluster.broadcast(ChatFrame.presence(changes));
+            }
+            presence.flush();
+        } catch (RuntimeException e) {
+            System.err.println("Error flushing presence: " + e);
+        } finally {
+            // One failed batch must not stop presence updates for good
+            timer.schedule(this::flushPresence, DatabaseConfig.CHAT_PRESENCE_BATCH_MS, TimeUnit.MILLISECONDS);
+        }
     }
 
-    public void removeClient(String username) {
-        clients.remove(username);
-        System.out.println("User " + username + " disconnected. Total clients: " + clients.size());
+    // Checks the connection once per idle timeout until it closes
+    void watchIdle(ChatConnection connection) {
+        timer.schedule(() -> checkIdle(connection), DatabaseConfig.CHAT_IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void checkIdle(ChatConnection connection) {
+        if (connection.isClosed()) {
+            return;
+        }
+        long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connection.lastReadNanos());
+        // Legacy text clients never ping, so they are only reaped if they never log in
+        String username = connection.getUsername();
+        boolean reapable = username == null || connection.sendsHeartbeats();
+        if (reapable && idleMillis >= DatabaseConfig.CHAT_IDLE_TIMEOUT_MS) {
+            System.err.println("Closing idle chat connection" + (username != null ? " of " + username : "")
+                    + " after " + idleMillis + " ms");
+            if (username != null) {
+                removeClient(username, connection);
+            }
+            connection.close();
+            return;
+        }
+        long delay = reapable ? DatabaseConfig.CHAT_IDLE_TIMEOUT_MS - idleMillis : DatabaseConfig.CHAT_IDLE_TIMEOUT_MS;
+        timer.schedule(() -> checkIdle(connection), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called by a connection whose outbound queue is full. Only the slow
+     * receiver is affected; the sender has already moved on.
+     */
+    void onOutboundOverflow(ChatConnection connection, OutboundQueue queue, ChatFrame frame) {
+        String username = connection.getUsername();
+        if (OVERFLOW_DROP.equals(overflowPolicy)) {
+            queue.recordDropped();
+            return;
+        }
+        if (OVERFLOW_DISCONNECT.equals(overflowPolicy)) {
+            queue.recordDropped();
+            System.err.println("Disconnecting slow chat client " + username + ": outbound queue full");
+            removeClient(username, connection);
+            connection.close();
+            return;
+        }
+
+        // Spill: stop routing to the connection first, so nothing slips in behind the backlog
+        removeClient(username, connection);
+        List<ChatFrame> backlog = queue.drain();
+        backlog.add(frame);
+        List<ChatFrame> messages = new ArrayList<>(backlog.size());
+        for (ChatFrame queued : backlog) {
+            if (queued.type() == ChatFrame.TYPE_MESSAGE) {
+                messages.add(queued);
+            }
+        }
+        int spilled = messages.size();
+        mailboxExecutor.execute(() -> {
+            for (ChatFrame message : messages) {
+                offlineStore.store(username, message);
+            }
+        });
+        queue.recordSpilled(spilled);
+        System.err.println("Disconnecting slow chat client " + username + ": spilled " + spilled + " messages");
+        connection.close();
     }
 
     public void sendMessage(String senderUsername, String receiverUsername, String message) {
-        ClientHandler receiverHandler = clients.get(receiverUsername);
-        if (receiverHandler != null) {
-            receiverHandler.sendMessage(senderUsername + ":" + receiverUsername + ":" + message);
+        ChatConnection receiver = clients.get(receiverUsername);
+        ChatFrame frame = ChatFrame.message(senderUsername, receiverUsername, message);
+        if (receiver != null) {
+            deliver(receiver, frame);
+        } else if (cluster == null || !cluster.forward(receiverUsername, frame)) {
+            storeOffline(receiverUsername, frame);
+        }
+        // Text clients cannot take acks, so nobody is told the id
+        if (messageStore != null) {
+            messageStore.append(senderUsername, receiverUsername, message, null, null);
+        }
+    }
+
+    // Relays a frame from a binary client; the payload is passed through undecoded
+    void routeFrame(ChatConnection from, byte[] senderBytes, ChatFrame frame) {
+        String receiverUsername = frame.receiver();
+        ChatConnection receiver = clients.get(receiverUsername);
+        ChatFrame stamped = frame.withSender(senderBytes);
+        if (receiver != null) {
+            deliver(receiver, stamped);
+        } else if (cluster == null || !cluster.forward(receiverUsername, stamped)) {
+            storeOffline(receiverUsername, stamped);
+        }
+        // Delivery does not wait for the database; the sender hears back once the message is stored or dropped
+        if (messageStore != null) {
+            String text = frame.payloadText();
+            messageStore.append(from.getUsername(), receiverUsername, text,
+                    id -> from.sendFrame(ChatFrame.ack(receiverUsername, id)),
+                    () -> from.sendFrame(ChatFrame.nack(receiverUsername, text)));
+        }
+    }
+
+    // Tells binary clients whether they still have to store their own messages
+    ChatFrame handshakeAck() {
+        return messageStore != null ? ChatFrame.HANDSHAKE_ACK_PERSISTING : ChatFrame.HANDSHAKE_ACK;
+    }
+
+    /**
+     * Adds the connection's user to a room, creating the room if it does not
+     * exist yet. Like every room operation it runs on the room's lane, which
+     * keeps the store off the I/O threads and a member's join ahead of their
+     * first post.
+     */
+    void joinRoom(ChatConnection connection, String roomName) {
+        if (!validRoomName(roomName)) {
+            return;
+        }
+        String username = connection.getUsername();
+        laneOf(roomName).execute(() -> {
+            ChatRoom room = room(roomName, true);
+            if (room == null || room.isMember(username)) {
+                return;
+            }
+            if (room.size() >= DatabaseConfig.CHAT_ROOM_MAX_MEMBERS) {
+                System.err.println("Room " + roomName + " is full; " + username + " cannot join");
+                return;
+            }
+            if (roomStore != null) {
+                try {
+                    roomStore.addMember(roomName, username);
+                } catch (SQLException e) {
+                    System.err.println("Error adding " + username + " to room " + roomName + ": " + e.getMessage());
+                    return;
+                }
+            }
+            room.add(username);
+            if (cluster != null) {
+                cluster.broadcast(ChatFrame.roomJoin(roomName).withSender(ChatFrame.utf8(username)));
+            }
+        });
+    }
+
+    void leaveRoom(ChatConnection connection, String roomName) {
+        String username = connection.getUsername();
+        laneOf(roomName).execute(() -> {
+            if (roomStore != null) {
+                try {
+                    roomStore.removeMember(roomName, username);
+                } catch (SQLException e) {
+                    System.err.println("Error removing " + username + " from room " + roomName + ": " + e.getMessage());
+                    return;
+                }
+            }
+            ChatRoom room = rooms.get(roomName);
+            if (room != null) {
+                room.remove(username);
+            }
+            if (cluster != null) {
+                cluster.broadcast(ChatFrame.roomLeave(roomName).withSender(ChatFrame.utf8(username)));
+            }
+        });
+    }
+
+    /**
+     * Posts a frame to every online member of a room. The frame is encoded
+     * once and all members' queues share its read-only buffer; the membership
+     * check and the walk over the members run on the room's fan-out lane, so
+     * the poster returns at once however large the room is, even when the
+     * room first has to be loaded from the store.
+     */
+    void postToRoom(ChatConnection from, byte[] senderBytes, ChatFrame frame) {
+        String username = from.getUsername();
+        String roomName = frame.receiver();
+        ChatFrame shared = frame.withSender(senderBytes);
+        laneOf(roomName).execute(() -> {
+            ChatRoom room = room(roomName, false);
+            if (room == null || !room.isMember(username)) {
+                System.err.println(username + " posted to room " + roomName + " without being a member");
+                return;
+            }
+            fanOut(room, shared, username);
+            if (cluster != null) {
+                cluster.broadcast(shared);
+            }
+        });
+    }
+
+    // A room post relayed from another node; only this node's members get it
+    void deliverRoomLocal(ChatFrame frame) {
+        laneOf(frame.receiver()).execute(() -> {
+            ChatRoom room = room(frame.receiver(), false);
+            if (room != null) {
+                fanOut(room, frame, frame.sender());
+            }
+        });
+    }
+
+    // A member joined or left a room on another node
+    void onRemoteRoomChange(ChatFrame frame) {
+        laneOf(frame.receiver()).execute(() -> {
+            // With a shared store, rooms not loaded here will be read fresh when first used
+            ChatRoom room = roomStore == null ? room(frame.receiver(), true) : rooms.get(frame.receiver());
+            if (room == null) {
+                return;
+            }
+            if (frame.type() == ChatFrame.TYPE_ROOM_JOIN) {
+                room.add(frame.sender());
+            } else {
+                room.remove(frame.sender());
+            }
+        });
+    }
+
+    private ExecutorService laneOf(String roomName) {
+        return fanoutLanes[Math.floorMod(roomName.hashCode(), fanoutLanes.length)];
+    }
+
+    // Runs on the room's lane
+    private void fanOut(ChatRoom room, ChatFrame frame, String poster) {
+        for (String member : room.members()) {
+            ChatConnection connection = clients.get(member);
+            if (connection != null && !member.equals(poster)) {
+                deliver(connection, frame);
+            }
         }
+    }
 
+    /**
+     * Returns the room, loading its members on first use. Rooms without
+     * members are only kept if create is set, so posts to unknown rooms do
+     * not fill the map. Null if the room does not exist or cannot be loaded.
+     * Only called on the room's lane, since loading may query the store.
+     */
+    private ChatRoom room(String name, boolean create) {
+        ChatRoom room = rooms.get(name);
+        if (room != null) {
+            return room;
+        }
+        Set<String> members = Collections.emptySet();
+        if (roomStore != null) {
+            try {
+                members = roomStore.members(name);
+            } catch (SQLException e) {
+                System.err.println("Error loading room " + name + ": " + e.getMessage());
+                return null;
+            }
+        }
+        if (members.isEmpty() && !create) {
+            return null;
+        }
+        ChatRoom loaded = new ChatRoom(name, members);
+        ChatRoom raced = rooms.putIfAbsent(name, loaded);
+        return raced != null ? raced : loaded;
+    }
 
+    private static boolean validRoomName(String name) {
+        return !name.isEmpty() && name.length() <= ChatRoom.MAX_NAME_LENGTH;
+    }
+
+    // A message relayed from another cluster node; it was stored by the node that received it
+    void deliverLocal(ChatFrame frame) {
+        ChatConnection receiver = clients.get(frame.receiver());
+        if (receiver != null) {
+            deliver(receiver, frame);
+        } else {
+            // The receiver left this node while the frame was on its way
+            storeOffline(frame.receiver(), frame);
+        }
+    }
+
+    /**
+     * Live messages for a connection whose handshake is not done. Once
+     * released, hold refuses further frames so they are sent directly; the
+     * lock keeps those from overtaking the held ones. Past the outbound
+     * queue capacity frames go to the mailbox, which handshakeDone drains
+     * after the held ones.
+     */
+    private final class HeldFrames {
+        private final String username;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final List<ChatFrame> frames = new ArrayList<>();
+        private boolean released;
+
+        HeldFrames(String username) {
+            this.username = username;
+        }
+
+        boolean hold(ChatFrame frame) {
+            lock.lock();
+            try {
+                if (released) {
+                    return false;
+                }
+                if (frames.size() < DatabaseConfig.CHAT_OUTBOUND_QUEUE_CAPACITY) {
+                    frames.add(frame);
+                } else {
+                    storeOffline(username, frame);
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release(ChatConnection connection) {
+            lock.lock();
+            try {
+                released = true;
+                for (ChatFrame frame : frames) {
+                    connection.sendFrame(frame);
+                }
+                frames.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
     }
 
     public static void main(String[] args) {
-        ChatServer server = new ChatServer();
+        // Engine can be picked with the first argument or -Dchat.engine=thread|virtual|nio
+        String engine = args.length > 0 ? args[0] : System.getProperty("chat.engine", DatabaseConfig.CHAT_SERVER_ENGINE);
+        ChatServer server = new ChatServer(engine);
         server.start();
     }
 }
 
-class ClientHandler implements Runnable {
+class ClientHandler implements Runnable, ChatConnection {
     private Socket socket;
     private ChatServer server;
-    private BufferedReader reader;
-    private PrintWriter writer;
+    private InputStream input;
+    private OutputStream output;
     private String username;
+    private byte[] usernameBytes;
+    private final ThreadFactory writerThreads;
+    // Frames waiting for the writer thread; senders never touch the socket
+    private final OutboundQueue outbound = new OutboundQueue(DatabaseConfig.CHAT_OUTBOUND_QUEUE_CAPACITY);
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private Thread writer;
+    private volatile long lastReadNanos = System.nanoTime();
+    private volatile boolean binary;
 
-    public ClientHandler(Socket socket, ChatServer server) {
+    public ClientHandler(Socket socket, ChatServer server, ThreadFactory writerThreads) {
         this.socket = socket;
         this.server = server;
+        this.writerThreads = writerThreads;
     }
 
     @Override
     public void run() {
         try {
-            reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            writer = new PrintWriter(socket.getOutputStream(), true);
+            // Lets the OS notice dead peers of legacy clients, which never send heartbeats
+            socket.setKeepAlive(true);
+            input = new BufferedInputStream(socket.getInputStream());
+            output = new BufferedOutputStream(socket.getOutputStream());
 
             // First message should be username
-            username = reader.readLine();
+            username = ChatFrame.readLine(input, ChatFrame.MAX_LINE_LENGTH);
+            lastReadNanos = System.nanoTime();
             if (username != null) {
+                usernameBytes = ChatFrame.utf8(username);
+                writer = writerThreads.newThread(this::writeLoop);
+                writer.start();
                 server.addClient(username, this);
 
-                String message;
-                while ((message = reader.readLine()) != null) {
-                    // Message format: receiver:message
-                    String[] parts = message.split(":", 2);
-                    if (parts.length == 2) {
-                        String receiver = parts[0];
-                        String messageText = parts[1];
-                        server.sendMessage(username, receiver, messageText);
+                // A binary-capable client asks for frames right after its username
+                String message = ChatFrame.readLine(input, ChatFrame.MAX_LINE_LENGTH);
+                lastReadNanos = System.nanoTime();
+                if (ChatFrame.HELLO.equals(message)) {
+                    binary = true;
+                    // The writer switches to frames once the ack is on the wire
+                    if (!outbound.offer(server.handshakeAck())) {
+                        return;
+                    }
+                    server.handshakeDone(this);
+                    readFrames();
+                } else if (message != null) {
+                    server.handshakeDone(this);
+                    if (handleTextLine(message)) {
+                        readTextLines();
                     }
                 }
             }
         } catch (IOException e) {
-            System.err.println("Error handling client: " + e.getMessage());
+            if (!closed.get()) {
+                System.err.println("Error handling client: " + e.getMessage());
+            }
         } finally {
             cleanup();
         }
     }
 
-    public void sendMessage(String message) {
-        if (writer != null) {
-            writer.println(message);
+    private void readTextLines() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, ChatFrame.TEXT_CHARSET));
+        String message;
+        while ((message = reader.readLine()) != null) {
+            lastReadNanos = System.nanoTime();
+            if (!handleTextLine(message)) {
+                return;
+            }
         }
     }
 
-    private void cleanup() {
+    // False once the client logs out
+    private boolean handleTextLine(String message) {
+        if (message.startsWith(ChatFrame.TEXT_DISCONNECT)) {
+            return false;
+        }
+        // Message format: receiver:message
+        String[] parts = message.split(":", 2);
+        if (parts.length == 2) {
+            String receiver = parts[0];
+            String messageText = parts[1];
+            server.sendMessage(username, receiver, messageText);
+        }
+        return true;
+    }
+
+    private void readFrames() throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        ChatFrame frame;
+        while ((frame = ChatFrame.read(in)) != null) {
+            lastReadNanos = System.nanoTime();
+            if (frame.type() == ChatFrame.TYPE_DISCONNECT) {
+                break;
+            }
+            if (frame.type() == ChatFrame.TYPE_MESSAGE) {
+                server.routeFrame(this, usernameBytes, frame);
+            } else if (frame.type() == ChatFrame.TYPE_PING) {
+                sendFrame(ChatFrame.PONG);
+            } else if (frame.type() == ChatFrame.TYPE_WATCH) {
+                server.watchPresence(this, frame.payloadText());
+            } else if (frame.type() == ChatFrame.TYPE_ROOM_MESSAGE) {
+                server.postToRoom(this, usernameBytes, frame);
+            } else if (frame.type() == ChatFrame.TYPE_ROOM_JOIN) {
+                server.joinRoom(this, frame.receiver());
+            } else if (frame.type() == ChatFrame.TYPE_ROOM_LEAVE) {
+                server.leaveRoom(this, frame.receiver());
+            }
+        }
+    }
+
+    // Sole user of the output stream; flushes only once the queue runs dry
+    private void writeLoop() {
+        boolean binary = false;
+        WritableByteChannel out = Channels.newChannel(output);
         try {
-            if (username != null) {
-                server.removeClient(username);
+            while (!closed.get()) {
+                ChatFrame frame = outbound.take();
+                ByteBuffer bytes = frame.render(binary);
+                while (bytes != null && bytes.hasRemaining()) {
+                    out.write(bytes);
+                }
+                if (frame.type() == ChatFrame.TYPE_HANDSHAKE_ACK) {
+                    binary = true;
+                }
+                if (outbound.isEmpty()) {
+                    output.flush();
+                }
             }
-            if (reader != null) reader.close();
-            if (writer != null) writer.close();
-            if (socket != null) socket.close();
+        } catch (InterruptedException e) {
+            // close() stops the writer
         } catch (IOException e) {
-            System.err.println("Error during cleanup: " + e.getMessage());
+            if (!closed.get()) {
+                System.err.println("Error sending to " + username + ": " + e.getMessage());
+                close();
+            }
+        }
+    }
+
+    @Override
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public void sendFrame(ChatFrame frame) {
+        if (closed.get()) {
+            return;
+        }
+        if (!outbound.offer(frame)) {
+            server.onOutboundOverflow(this, outbound, frame);
+        }
+    }
+
+    @Override
+    public ConnectionStats getStats() {
+        return outbound.stats(username);
+    }
+
+    @Override
+    public long lastReadNanos() {
+        return lastReadNanos;
+    }
+
+    @Override
+    public boolean sendsHeartbeats() {
+        return binary;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        outbound.clear();
+        if (writer != null) {
+            writer.interrupt();
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing client socket: " + e.getMessage());
+        }
+    }
+
+    private void cleanup() {
+        if (username != null) {
+            server.removeClient(username, this);
         }
+        close();
     }
 }
@@ -0,0 +1,238 @@
+package chat;
+
+import config.DatabaseConfig;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cluster side of a ChatServer node. Users connected here are published to
+ * the shared PresenceDirectory; messages for users on other nodes are
+ * relayed as ChatFrames over one persistent link per peer node.
+ *
+ * The relay port accepts frames from any peer without authentication, so it
+ * must only be reachable from the other chat nodes. Relaying is best effort:
+ * frames queued for a link that breaks are lost, but the sending node has
+ * already stored them, so receivers still see them in their history.
+ */
+class ClusterRouter {
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final long MAX_RECONNECT_DELAY_MS = 5000;
+
+    private final ChatServer server;
+    private final String nodeId;
+    private final int relayPort;
+    private final PresenceDirectory directory;
+    private final Map<String, NodeLink> links = new ConcurrentHashMap<>();
+    private final Set<Socket> inboundLinks = ConcurrentHashMap.newKeySet();
+    private ServerSocket relaySocket;
+    private volatile boolean running;
+
+    ClusterRouter(ChatServer server, String nodeId, int relayPort, PresenceDirectory directory) {
+        this.server = server;
+        this.nodeId = nodeId;
+        this.relayPort = relayPort;
+        this.directory = directory;
+    }
+
+    void start() throws IOException {
+        relaySocket = new ServerSocket(relayPort);
+        running = true;
+        directory.registerNode(nodeId,
+                new InetSocketAddress(DatabaseConfig.CHAT_CLUSTER_HOST, relaySocket.getLocalPort()));
+        startDaemon("chat-relay-" + nodeId, this::acceptLinks);
+        System.out.println("Chat node " + nodeId + " relaying on port " + relaySocket.getLocalPort());
+    }
+
+    void stop() {
+        running = false;
+        directory.unregisterNode(nodeId);
+        try {
+            if (relaySocket != null) {
+                relaySocket.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error stopping chat relay: " + e.getMessage());
+        }
+        for (NodeLink link : links.values()) {
+            link.close();
+        }
+        for (Socket socket : inboundLinks) {
+            closeQuietly(socket);
+        }
+    }
+
+    void userConnected(String username) {
+        directory.userConnected(username, nodeId);
+    }
+
+    void userDisconnected(String username) {
+        directory.userDisconnected(username, nodeId);
+    }
+
+    // Returns false if the receiver is not connected to any other node
+    boolean forward(String receiverUsername, ChatFrame frame) {
+        String node = directory.nodeOf(receiverUsername);
+        if (node == null || node.equals(nodeId) || !running) {
+            return false;
+        }
+        links.computeIfAbsent(node, NodeLink::new).send(frame);
+        return true;
+    }
+
+    // Presence hints, room membership changes and room messages go to every other node
+    void broadcast(ChatFrame frame) {
+        for (String node : directory.nodeIds()) {
+            if (!node.equals(nodeId) && running) {
+                links.computeIfAbsent(node, NodeLink::new).send(frame);
+            }
+        }
+    }
+
+    boolean isOnline(String username) {
+        return directory.nodeOf(username) != null;
+    }
+
+    boolean isOnOtherNode(String username) {
+        String node = directory.nodeOf(username);
+        return node != null && !node.equals(nodeId);
+    }
+
+    private void acceptLinks() {
+        while (running) {
+            try {
+                Socket socket = relaySocket.accept();
+                socket.setTcpNoDelay(true);
+                inboundLinks.add(socket);
+                startDaemon("chat-relay-in-" + nodeId, () -> readLink(socket));
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Error accepting chat relay link: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void readLink(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            ChatFrame frame;
+            while ((frame = ChatFrame.read(in)) != null) {
+                if (frame.type() == ChatFrame.TYPE_MESSAGE) {
+                    // Never forwarded again, so a stale directory entry cannot make frames bounce
+                    server.deliverLocal(frame);
+                } else if (frame.type() == ChatFrame.TYPE_PRESENCE) {
+                    server.onRemotePresence(frame.payloadText());
+                } else if (frame.type() == ChatFrame.TYPE_ROOM_MESSAGE) {
+                    server.deliverRoomLocal(frame);
+                } else if (frame.type() == ChatFrame.TYPE_ROOM_JOIN || frame.type() == ChatFrame.TYPE_ROOM_LEAVE) {
+                    server.onRemoteRoomChange(frame);
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Chat relay link closed: " + e.getMessage());
+            }
+        } finally {
+            inboundLinks.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private static void startDaemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /** Outbound link to one peer node, reconnecting with backoff until that node leaves. */
+    private final class NodeLink implements Runnable {
+        private final String peer;
+        private final OutboundQueue queue = new OutboundQueue(DatabaseConfig.CHAT_CLUSTER_LINK_QUEUE_CAPACITY);
+        private final Thread writer;
+        private volatile Socket socket;
+        private volatile boolean closed;
+
+        NodeLink(String peer) {
+            this.peer = peer;
+            this.writer = new Thread(this, "chat-link-" + nodeId + "-" + peer);
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        void send(ChatFrame frame) {
+            if (!queue.offer(frame)) {
+                queue.recordDropped();
+            }
+        }
+
+        @Override
+        public void run() {
+            long delay = 100;
+            try {
+                while (running && !closed) {
+                    InetSocketAddress address = directory.nodeAddress(peer);
+                    if (address == null) {
+                        System.err.println("Chat node " + peer + " left the cluster");
+                        break;
+                    }
+                    try (Socket s = new Socket()) {
+                        s.connect(address, CONNECT_TIMEOUT_MS);
+                        s.setTcpNoDelay(true);
+                        socket = s;
+                        delay = 100;
+                        pump(s);
+                    } catch (IOException e) {
+                        if (running && !closed) {
+                            System.err.println("Chat link to " + peer + " failed: " + e.getMessage());
+                            Thread.sleep(delay);
+                            delay = Math.min(delay * 2, MAX_RECONNECT_DELAY_MS);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                // close() stops the link
+            } finally {
+                links.remove(peer, this);
+            }
+        }
+
+        // Writes queued frames until the socket fails; flushes once the queue runs dry
+        private void pump(Socket s) throws IOException, InterruptedException {
+            OutputStream out = new BufferedOutputStream(s.getOutputStream());
+            WritableByteChannel channel = Channels.newChannel(out);
+            while (running && !closed) {
+                ByteBuffer bytes = queue.take().encoded();
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                if (queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+        }
+
+        void close() {
+            closed = true;
+            writer.interrupt();
+            Socket s = socket;
+            if (s != null) {
+                closeQuietly(s);
+            }
+        }
+    }
+}
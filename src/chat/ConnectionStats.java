@@ -0,0 +1,44 @@
+package chat;
+
+import java.io.Serializable;
+
+public class ConnectionStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String username;
+    private final int queueDepth;
+    private final int queueHighWater;
+    private final int queueCapacity;
+    private final long enqueuedCount;
+    private final long droppedCount;
+    private final long spilledCount;
+
+    public ConnectionStats(String username, int queueDepth, int queueHighWater, int queueCapacity,
+                           long enqueuedCount, long droppedCount, long spilledCount) {
+        this.username = username;
+        this.queueDepth = queueDepth;
+        this.queueHighWater = queueHighWater;
+        this.queueCapacity = queueCapacity;
+        this.enqueuedCount = enqueuedCount;
+        this.droppedCount = droppedCount;
+        this.spilledCount = spilledCount;
+    }
+
+    // Getters
+    public String getUsername() { return username; }
+    public int getQueueDepth() { return queueDepth; }
+    public int getQueueHighWater() { return queueHighWater; }
+    public int getQueueCapacity() { return queueCapacity; }
+    public long getEnqueuedCount() { return enqueuedCount; }
+    public long getDroppedCount() { return droppedCount; }
+    public long getSpilledCount() { return spilledCount; }
+
+    @Override
+    public String toString() {
+        return username + "{depth=" + queueDepth + "/" + queueCapacity +
+                ", highWater=" + queueHighWater +
+                ", enqueued=" + enqueuedCount +
+                ", dropped=" + droppedCount +
+                ", spilled=" + spilledCount + "}";
+    }
+}
@@ -0,0 +1,62 @@
+package chat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-local offline store keeping at most a fixed number of frames per
+ * user; the oldest are discarded first when a user's box is full.
+ */
+class InMemoryOfflineStore implements OfflineStore {
+    private final Map<String, Deque<ChatFrame>> boxes = new ConcurrentHashMap<>();
+    private final int maxFramesPerUser;
+    private final AtomicLong dropped = new AtomicLong();
+
+    InMemoryOfflineStore(int maxFramesPerUser) {
+        this.maxFramesPerUser = maxFramesPerUser;
+    }
+
+    @Override
+    public void store(String username, ChatFrame frame) {
+        boxes.compute(username, (user, box) -> {
+            if (box == null) {
+                box = new ArrayDeque<>();
+            }
+            if (box.size() >= maxFramesPerUser) {
+                box.pollFirst();
+                logDropped(user, dropped.incrementAndGet());
+            }
+            box.addLast(frame);
+            return box;
+        });
+    }
+
+    @Override
+    public List<ChatFrame> drain(String username) {
+        Deque<ChatFrame> box = boxes.remove(username);
+        return box == null ? new ArrayList<>() : new ArrayList<>(box);
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public void close() {
+        boxes.clear();
+    }
+
+    // A user flooded while away would log once per message, so only every thousandth drop is reported
+    static void logDropped(String username, long total) {
+        if (total == 1 || total % 1000 == 0) {
+            System.err.println("Mailbox of " + username + " is full; dropped its oldest message ("
+                    + total + " dropped so far)");
+        }
+    }
+}
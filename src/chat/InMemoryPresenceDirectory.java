@@ -0,0 +1,52 @@
+package chat;
+
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Presence directory shared by nodes running in one JVM, e.g. to run a
+ * multi-node cluster on a single machine.
+ */
+public class InMemoryPresenceDirectory implements PresenceDirectory {
+    private final Map<String, InetSocketAddress> nodes = new ConcurrentHashMap<>();
+    private final Map<String, String> users = new ConcurrentHashMap<>();
+
+    @Override
+    public void registerNode(String nodeId, InetSocketAddress relayAddress) {
+        nodes.put(nodeId, relayAddress);
+    }
+
+    @Override
+    public void unregisterNode(String nodeId) {
+        nodes.remove(nodeId);
+        users.values().removeIf(nodeId::equals);
+    }
+
+    @Override
+    public InetSocketAddress nodeAddress(String nodeId) {
+        return nodes.get(nodeId);
+    }
+
+    @Override
+    public Set<String> nodeIds() {
+        return new HashSet<>(nodes.keySet());
+    }
+
+    @Override
+    public void userConnected(String username, String nodeId) {
+        users.put(username, nodeId);
+    }
+
+    @Override
+    public void userDisconnected(String username, String nodeId) {
+        users.remove(username, nodeId);
+    }
+
+    @Override
+    public String nodeOf(String username) {
+        return users.get(username);
+    }
+}
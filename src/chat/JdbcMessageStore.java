@@ -0,0 +1,40 @@
+package chat;
+
+import db.ConnectionPool;
+import db.ConversationIndex;
+import db.JdbcMessageRepository;
+import models.Message;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Stores routed messages straight into the messages table, each batch as
+ * one JDBC batch together with its conversation index updates, in one
+ * transaction.
+ */
+class JdbcMessageStore extends WriteBehindMessageStore {
+    private final ConnectionPool pool;
+    private final JdbcMessageRepository repository;
+
+    JdbcMessageStore() throws SQLException {
+        this.pool = new ConnectionPool();
+        try (Connection conn = pool.getConnection()) {
+            ConversationIndex.ensureTable(conn);
+        } catch (SQLException e) {
+            pool.close();
+            throw e;
+        }
+        this.repository = new JdbcMessageRepository(pool);
+    }
+
+    @Override
+    protected void store(List<Message> batch) throws SQLException {
+        repository.saveAll(batch);
+    }
+
+    @Override
+    protected void release() {
+        pool.close();
+    }
+}
@@ -0,0 +1,77 @@
+package chat;
+
+import db.ConnectionPool;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+
+/** Room membership in the chat_room_members table, created on first start. */
+class JdbcRoomStore implements RoomStore {
+    private static final String CREATE_SQL =
+            "CREATE TABLE IF NOT EXISTS chat_room_members (" +
+            "room_name VARCHAR(" + ChatRoom.MAX_NAME_LENGTH + ") NOT NULL, " +
+            "username VARCHAR(50) NOT NULL, " +
+            "joined_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+            "PRIMARY KEY (room_name, username), " +
+            "KEY idx_chat_room_members_user (username))";
+
+    private final ConnectionPool pool;
+
+    JdbcRoomStore() throws SQLException {
+        this.pool = new ConnectionPool();
+        try (Connection conn = pool.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate(CREATE_SQL);
+        } catch (SQLException e) {
+            pool.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public Set<String> members(String room) throws SQLException {
+        Set<String> members = new HashSet<>();
+        try (Connection conn = pool.getConnection()) {
+            PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT username FROM chat_room_members WHERE room_name = ?");
+            stmt.setString(1, room);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    members.add(rs.getString("username"));
+                }
+            }
+        }
+        return members;
+    }
+
+    @Override
+    public void addMember(String room, String username) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT IGNORE INTO chat_room_members (room_name, username) VALUES (?, ?)");
+            stmt.setString(1, room);
+            stmt.setString(2, username);
+            stmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public void removeMember(String room, String username) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            PreparedStatement stmt = conn.prepareStatement(
+                    "DELETE FROM chat_room_members WHERE room_name = ? AND username = ?");
+            stmt.setString(1, room);
+            stmt.setString(2, username);
+            stmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+}
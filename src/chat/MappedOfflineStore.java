@@ -0,0 +1,338 @@
+package chat;
+
+import config.DatabaseConfig;
+import util.SegmentedLog;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Offline mailboxes kept in a segmented, memory-mapped append log, so they
+ * survive a server restart. Frames for every user go to the same log; an
+ * in-memory index per user points at that user's records, oldest first.
+ *
+ * Record layout: int32 body length, int32 CRC32 of the body, then the body:
+ *
+ *   byte   kind (message or drained)
+ *   int64  sequence number
+ *   int64  written at, epoch millis
+ *   uint16 username length, username bytes (UTF-8)
+ *   frame bytes (messages only)
+ *
+ * Draining a mailbox never rewrites the log: it appends a drained marker that
+ * cancels the user's earlier records. On restart the log is replayed up to
+ * the first torn or corrupt record of each segment, and writing resumes in a
+ * fresh segment. Segments are only deleted oldest first, once nothing in them
+ * is undelivered, so a marker is never lost before the records it cancels.
+ * Disk use is bounded by size and age; past either limit the oldest segment
+ * is dropped with whatever it still holds. The segment files themselves are
+ * managed by SegmentedLog.
+ */
+class MappedOfflineStore implements OfflineStore {
+    private static final byte RECORD_MESSAGE = 1;
+    private static final byte RECORD_DRAINED = 2;
+    // Kind, sequence, timestamp, username length
+    private static final int BODY_HEADER = 19;
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final long retentionMillis;
+    private final int maxFramesPerUser;
+    private final SegmentedLog log;
+    // By segment id
+    private final Map<Long, SegmentUsage> usage = new HashMap<>();
+    private final Map<String, ArrayDeque<Entry>> mailboxes = new HashMap<>();
+    // Guards the index and all writes; the log forces segments without it
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ScheduledExecutorService maintenance;
+    private long nextSequence = 1;
+    private long dropped;
+    private boolean closed;
+
+    MappedOfflineStore(Path directory) throws IOException {
+        this(directory, DatabaseConfig.CHAT_MAILBOX_SEGMENT_BYTES, DatabaseConfig.CHAT_MAILBOX_MAX_BYTES,
+                TimeUnit.HOURS.toMillis(DatabaseConfig.CHAT_MAILBOX_RETENTION_HOURS),
+                DatabaseConfig.CHAT_MAILBOX_MAX_PER_USER);
+    }
+
+    MappedOfflineStore(Path directory, int segmentBytes, long maxBytes, long retentionMillis,
+                       int maxFramesPerUser) throws IOException {
+        if (segmentBytes < SegmentedLog.RECORD_HEADER + BODY_HEADER + ChatFrame.LENGTH_PREFIX
+                + ChatFrame.MAX_BODY_LENGTH + 2 * 0xFFFF) {
+            throw new IllegalArgumentException("Mailbox segments must fit the largest chat frame");
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        this.retentionMillis = retentionMillis;
+        this.maxFramesPerUser = maxFramesPerUser;
+
+        log = new SegmentedLog(directory, SEGMENT_SUFFIX, segmentBytes, BODY_HEADER);
+        recover();
+
+        maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chat-mailbox-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        maintenance.scheduleWithFixedDelay(this::sync, DatabaseConfig.CHAT_MAILBOX_SYNC_INTERVAL_MS,
+                DatabaseConfig.CHAT_MAILBOX_SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void store(String username, ChatFrame frame) {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            Entry entry = append(RECORD_MESSAGE, username, frame.encoded());
+            addEntry(username, entry);
+        } catch (IOException e) {
+            System.err.println("Error storing offline message for " + username + ": " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<ChatFrame> drain(String username) {
+        lock.lock();
+        try {
+            ArrayDeque<Entry> mailbox = mailboxes.remove(username);
+            if (mailbox == null || closed) {
+                return new ArrayList<>();
+            }
+            List<ChatFrame> frames = new ArrayList<>(mailbox.size());
+            for (Entry entry : mailbox) {
+                try {
+                    frames.add(read(entry));
+                } catch (IOException e) {
+                    System.err.println("Skipping unreadable offline message for " + username + ": " + e.getMessage());
+                }
+                usageOf(entry).live--;
+            }
+            try {
+                append(RECORD_DRAINED, username, ByteBuffer.allocate(0));
+            } catch (IOException e) {
+                // The messages were handed out anyway; after a restart they may be delivered again
+                System.err.println("Error recording drained mailbox of " + username + ": " + e.getMessage());
+            }
+            deleteDeliveredSegments();
+            return frames;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        maintenance.shutdown();
+        lock.lock();
+        try {
+            closed = true;
+            log.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Entry append(byte kind, String username, ByteBuffer frame) throws IOException {
+        byte[] user = ChatFrame.utf8(username);
+        int bodyLength = BODY_HEADER + user.length + frame.remaining();
+        if (!log.fits(bodyLength)) {
+            roll();
+        }
+
+        long now = System.currentTimeMillis();
+        long sequence = nextSequence++;
+        ByteBuffer body = ByteBuffer.allocate(bodyLength);
+        body.put(kind).putLong(sequence).putLong(now).putShort((short) user.length).put(user);
+        int frameOffset = body.position();
+        body.put(frame.duplicate());
+        body.flip();
+
+        long position = log.append(body);
+        usageOf(log.activeSegment()).newestMillis = now;
+        return new Entry(position, sequence, frameOffset, frame.remaining());
+    }
+
+    // Copied out, since the segment may be retired while the frame is still queued
+    private ChatFrame read(Entry entry) throws IOException {
+        ByteBuffer body = log.read(entry.position);
+        if (body == null) {
+            throw new IOException("record no longer in the log");
+        }
+        byte[] bytes = new byte[entry.length];
+        body.position(body.position() + entry.frameOffset);
+        body.get(bytes);
+        return ChatFrame.parse(ByteBuffer.wrap(bytes));
+    }
+
+    private void addEntry(String username, Entry entry) {
+        ArrayDeque<Entry> mailbox = mailboxes.computeIfAbsent(username, u -> new ArrayDeque<>());
+        if (mailbox.size() >= maxFramesPerUser) {
+            usageOf(mailbox.pollFirst()).live--;
+            InMemoryOfflineStore.logDropped(username, ++dropped);
+        }
+        mailbox.addLast(entry);
+        usageOf(entry).live++;
+    }
+
+    private SegmentUsage usageOf(Entry entry) {
+        return usageOf(SegmentedLog.segmentOf(entry.position));
+    }
+
+    // Segments without intact records have no usage yet
+    private SegmentUsage usageOf(long segment) {
+        return usage.computeIfAbsent(segment, id -> new SegmentUsage());
+    }
+
+    // Starts a new segment, first making room for it under the size limit
+    private void roll() throws IOException {
+        while (log.segmentCount() > 0 && (long) (log.segmentCount() + 1) * segmentBytes > maxBytes) {
+            dropOldestSegment("the mailbox size limit");
+        }
+        log.roll();
+    }
+
+    private void recover() {
+        log.replay(this::replay);
+        deleteDeliveredSegments();
+        applyRetention();
+        int recovered = 0;
+        for (ArrayDeque<Entry> mailbox : mailboxes.values()) {
+            recovered += mailbox.size();
+        }
+        if (recovered > 0) {
+            System.out.println("Recovered " + recovered + " offline messages from " + directory);
+        }
+    }
+
+    private void replay(long position, ByteBuffer body) {
+        SegmentUsage segment = usageOf(SegmentedLog.segmentOf(position));
+        int start = body.position();
+        byte kind = body.get();
+        long sequence = body.getLong();
+        long writtenAt = body.getLong();
+        byte[] user = new byte[body.getShort() & 0xFFFF];
+        if (user.length > body.remaining()) {
+            System.err.println("Skipping malformed offline record in " + directory);
+            return;
+        }
+        body.get(user);
+        String username = new String(user, StandardCharsets.UTF_8);
+        nextSequence = Math.max(nextSequence, sequence + 1);
+        segment.newestMillis = Math.max(segment.newestMillis, writtenAt);
+
+        if (kind == RECORD_MESSAGE) {
+            addEntry(username, new Entry(position, sequence, body.position() - start, body.remaining()));
+        } else if (kind == RECORD_DRAINED) {
+            ArrayDeque<Entry> mailbox = mailboxes.get(username);
+            while (mailbox != null && !mailbox.isEmpty() && mailbox.peekFirst().sequence < sequence) {
+                usageOf(mailbox.pollFirst()).live--;
+            }
+            if (mailbox != null && mailbox.isEmpty()) {
+                mailboxes.remove(username);
+            }
+        }
+    }
+
+    // Retention runs under the lock; the forcing that follows does not
+    private void sync() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            applyRetention();
+        } finally {
+            lock.unlock();
+        }
+        log.sync();
+    }
+
+    private void applyRetention() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        while (log.segmentCount() > 0 && log.oldestSegment() != log.activeSegment()
+                && usageOf(log.oldestSegment()).newestMillis < cutoff) {
+            dropOldestSegment("the retention limit");
+        }
+    }
+
+    // Only the oldest segments go, so drained markers outlive the records they cancel
+    private void deleteDeliveredSegments() {
+        while (log.segmentCount() > 0 && log.oldestSegment() != log.activeSegment()
+                && usageOf(log.oldestSegment()).live == 0) {
+            usage.remove(log.oldestSegment());
+            log.retireOldest();
+        }
+    }
+
+    private void dropOldestSegment(String reason) {
+        long oldest = log.oldestSegment();
+        int count = 0;
+        Iterator<ArrayDeque<Entry>> boxes = mailboxes.values().iterator();
+        while (boxes.hasNext()) {
+            ArrayDeque<Entry> mailbox = boxes.next();
+            // A segment holds the oldest records of every mailbox it appears in
+            while (!mailbox.isEmpty() && SegmentedLog.segmentOf(mailbox.peekFirst().position) == oldest) {
+                mailbox.pollFirst();
+                count++;
+            }
+            if (mailbox.isEmpty()) {
+                boxes.remove();
+            }
+        }
+        if (count > 0) {
+            dropped += count;
+            System.err.println("Dropped " + count + " offline messages to stay within " + reason);
+        }
+        usage.remove(oldest);
+        log.retireOldest();
+    }
+
+    private static final class SegmentUsage {
+        // Undelivered messages in the segment
+        int live;
+        long newestMillis;
+    }
+
+    private static final class Entry {
+        final long position;
+        final long sequence;
+        // Where the frame starts within the record body
+        final int frameOffset;
+        final int length;
+
+        Entry(long position, long sequence, int frameOffset, int length) {
+            this.position = position;
+            this.sequence = sequence;
+            this.frameOffset = frameOffset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package chat;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Where the chat server keeps the messages it routes. Appends return
+ * quickly; onStored, when given, receives the message id once the message
+ * is durable. When storage falls too far behind, appends are rejected and
+ * counted instead of stalling the routing threads. onRejected, when given,
+ * runs for every message that will not be stored, whether it was rejected
+ * or its batch failed for good.
+ */
+interface MessageStore {
+    void append(String sender, String receiver, String text, IntConsumer onStored, Runnable onRejected);
+
+    // Messages that were delivered but could not be queued for storage
+    long getRejectedCount();
+
+    // Stores everything already appended, then releases resources
+    void close();
+}
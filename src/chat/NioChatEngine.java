@@ -0,0 +1,477 @@
+package chat;
+
+import config.DatabaseConfig;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking chat engine: one acceptor thread plus a fixed set of I/O
+ * threads, each multiplexing many connections over its own Selector.
+ *
+ * Speaks the same protocols as ClientHandler: newline-delimited text, or
+ * length-prefixed ChatFrames once a client has negotiated them.
+ */
+class NioChatEngine {
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    // Same charset as the legacy text protocol of the blocking engine
+    private static final Charset CHARSET = ChatFrame.TEXT_CHARSET;
+
+    // Marks the I/O threads, which must never wait on a full queue, a lock held across I/O or the database
+    private static final ThreadLocal<Boolean> IO_THREAD = ThreadLocal.withInitial(() -> false);
+
+    private final ChatServer server;
+    private final int port;
+    private final IoWorker[] workers;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running;
+
+    NioChatEngine(ChatServer server, int port, int ioThreads) {
+        this.server = server;
+        this.port = port;
+        this.workers = new IoWorker[Math.max(1, ioThreads)];
+    }
+
+    // Runs the accept loop on the calling thread until stop() is called
+    void run() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        running = true;
+
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new IoWorker();
+            Thread thread = new Thread(workers[i], "chat-nio-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int next = 0;
+        try {
+            while (running) {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().setKeepAlive(true);
+                workers[next].register(channel);
+                next = (next + 1) % workers.length;
+            }
+        } catch (ClosedChannelException e) {
+            // stop() closed the server channel
+        } finally {
+            stop();
+        }
+    }
+
+    static boolean isIoThread() {
+        return IO_THREAD.get();
+    }
+
+    void stop() {
+        running = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error stopping NIO chat engine: " + e.getMessage());
+        }
+        for (IoWorker worker : workers) {
+            if (worker != null) {
+                worker.selector.wakeup();
+            }
+        }
+    }
+
+    private final class IoWorker implements Runnable {
+        private final Selector selector;
+        // Shared by all connections of this worker; unconsumed bytes move to the connection's partial line
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private final Queue<SocketChannel> pendingRegistrations = new ConcurrentLinkedQueue<>();
+        private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+        IoWorker() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            pendingRegistrations.add(channel);
+            selector.wakeup();
+        }
+
+        void requestWrite(NioConnection connection) {
+            pendingWrites.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            IO_THREAD.set(true);
+            while (running) {
+                try {
+                    selector.select();
+                    processRegistrations();
+                    processWriteRequests();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (IOException e) {
+                            connection.close();
+                        } catch (RuntimeException e) {
+                            // One broken connection must not take the others on this selector down
+                            System.err.println("Error handling " + connection.describe() + ": " + e);
+                            connection.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("NIO chat worker error: " + e.getMessage());
+                }
+            }
+
+            for (SelectionKey key : selector.keys()) {
+                ((NioConnection) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("Error closing selector: " + e.getMessage());
+            }
+        }
+
+        private void processRegistrations() {
+            SocketChannel channel;
+            while ((channel = pendingRegistrations.poll()) != null) {
+                try {
+                    NioConnection connection = new NioConnection(channel, this);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    server.watchIdle(connection);
+                } catch (IOException e) {
+                    System.err.println("Error registering chat connection: " + e.getMessage());
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+
+        private void processWriteRequests() {
+            NioConnection connection;
+            while ((connection = pendingWrites.poll()) != null) {
+                try {
+                    connection.onWritable();
+                } catch (IOException e) {
+                    connection.close();
+                } catch (RuntimeException e) {
+                    System.err.println("Error writing to " + connection.describe() + ": " + e);
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private final class NioConnection implements ChatConnection {
+        private final SocketChannel channel;
+        private final IoWorker worker;
+        private final ByteBuffer readBuffer;
+        private final OutboundQueue outbound = new OutboundQueue(DatabaseConfig.CHAT_OUTBOUND_QUEUE_CAPACITY);
+        private final AtomicBoolean writeScheduled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        // Frame being written and the outbound encoding; only touched by the worker thread
+        private ByteBuffer current;
+        private boolean binaryOut;
+        // Bytes of an incomplete line or frame carried between reads; only touched by the worker thread
+        private byte[] pending = new byte[0];
+        private int pendingLength;
+        private SelectionKey key;
+        private volatile String username;
+        private byte[] usernameBytes;
+        private boolean handshakeDone;
+        // Written by the worker only; volatile because the idle checker reads it
+        private volatile boolean binary;
+        private volatile long lastReadNanos = System.nanoTime();
+
+        NioConnection(SocketChannel channel, IoWorker worker) {
+            this.channel = channel;
+            this.worker = worker;
+            this.readBuffer = worker.readBuffer;
+        }
+
+        @Override
+        public String getUsername() {
+            return username;
+        }
+
+        @Override
+        public void sendFrame(ChatFrame frame) {
+            if (closed.get()) {
+                return;
+            }
+            if (!outbound.offer(frame)) {
+                server.onOutboundOverflow(this, outbound, frame);
+                return;
+            }
+            scheduleWrite();
+        }
+
+        @Override
+        public ConnectionStats getStats() {
+            return outbound.stats(username);
+        }
+
+        @Override
+        public long lastReadNanos() {
+            return lastReadNanos;
+        }
+
+        @Override
+        public boolean sendsHeartbeats() {
+            return binary;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed.get();
+        }
+
+        private void scheduleWrite() {
+            if (writeScheduled.compareAndSet(false, true)) {
+                worker.requestWrite(this);
+            }
+        }
+
+        void onReadable() throws IOException {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                close();
+                return;
+            }
+            lastReadNanos = System.nanoTime();
+            readBuffer.flip();
+
+            ByteBuffer input = readBuffer;
+            if (pendingLength > 0) {
+                // Continue the line or frame left over from the previous read
+                ensurePending(pendingLength + readBuffer.remaining());
+                readBuffer.get(pending, pendingLength, readBuffer.remaining());
+                input = ByteBuffer.wrap(pending, 0, pendingLength + read);
+                pendingLength = 0;
+            }
+
+            try {
+                consume(input);
+            } catch (IOException e) {
+                System.err.println("Protocol error from " + describe() + ": " + e.getMessage());
+                close();
+                return;
+            }
+
+            if (!closed.get() && input.hasRemaining()) {
+                int remaining = input.remaining();
+                if (input != readBuffer) {
+                    // input wraps pending itself; shift the tail to the front
+                    System.arraycopy(pending, input.position(), pending, 0, remaining);
+                } else {
+                    ensurePending(remaining);
+                    input.get(pending, 0, remaining);
+                }
+                pendingLength = remaining;
+            }
+        }
+
+        private void ensurePending(int size) {
+            if (pending.length < size) {
+                byte[] grown = new byte[Math.max(size, pending.length * 2)];
+                System.arraycopy(pending, 0, grown, 0, pendingLength);
+                pending = grown;
+            }
+        }
+
+        // Handles every complete line or frame in input, leaving any incomplete tail unread
+        private void consume(ByteBuffer input) throws IOException {
+            while (input.hasRemaining() && !closed.get()) {
+                if (binary) {
+                    int frameLength = ChatFrame.completeFrameLength(input);
+                    if (frameLength == 0) {
+                        return;
+                    }
+                    // The read buffer is shared, so the frame gets its own copy before it is routed
+                    byte[] frame = new byte[frameLength];
+                    input.get(frame);
+                    handleFrame(ChatFrame.parse(ByteBuffer.wrap(frame)));
+                } else {
+                    int newline = -1;
+                    for (int i = input.position(); i < input.limit(); i++) {
+                        if (input.get(i) == '\n') {
+                            newline = i;
+                            break;
+                        }
+                    }
+                    if (newline < 0) {
+                        if (input.remaining() > ChatFrame.MAX_LINE_LENGTH) {
+                            throw new IOException("Chat line too long");
+                        }
+                        return;
+                    }
+                    int length = newline - input.position();
+                    if (length > 0 && input.get(newline - 1) == '\r') {
+                        length--;
+                    }
+                    byte[] bytes = new byte[length];
+                    input.get(bytes);
+                    input.position(newline + 1);
+                    handleLine(new String(bytes, CHARSET));
+                }
+            }
+        }
+
+        private void handleLine(String line) {
+            // First line is the username, the rest are receiver:message
+            if (username == null) {
+                username = line;
+                usernameBytes = ChatFrame.utf8(line);
+                server.addClient(username, this);
+                return;
+            }
+            if (line.startsWith(ChatFrame.TEXT_DISCONNECT)) {
+                close();
+                return;
+            }
+            // A binary-capable client asks for frames right after its username
+            if (!handshakeDone) {
+                handshakeDone = true;
+                if (ChatFrame.HELLO.equals(line)) {
+                    switchToBinary();
+                    return;
+                }
+                server.handshakeDone(this);
+            }
+            String[] parts = line.split(":", 2);
+            if (parts.length == 2) {
+                server.sendMessage(username, parts[0], parts[1]);
+            }
+        }
+
+        private void switchToBinary() {
+            // Input switches now; output switches once the writer reaches the ack
+            binary = true;
+            if (!outbound.offer(server.handshakeAck())) {
+                close();
+                return;
+            }
+            scheduleWrite();
+            server.handshakeDone(this);
+        }
+
+        private void handleFrame(ChatFrame frame) {
+            if (frame.type() == ChatFrame.TYPE_DISCONNECT) {
+                close();
+            } else if (frame.type() == ChatFrame.TYPE_MESSAGE) {
+                server.routeFrame(this, usernameBytes, frame);
+            } else if (frame.type() == ChatFrame.TYPE_PING) {
+                sendFrame(ChatFrame.PONG);
+            } else if (frame.type() == ChatFrame.TYPE_WATCH) {
+                server.watchPresence(this, frame.payloadText());
+            } else if (frame.type() == ChatFrame.TYPE_ROOM_MESSAGE) {
+                server.postToRoom(this, usernameBytes, frame);
+            } else if (frame.type() == ChatFrame.TYPE_ROOM_JOIN) {
+                server.joinRoom(this, frame.receiver());
+            } else if (frame.type() == ChatFrame.TYPE_ROOM_LEAVE) {
+                server.leaveRoom(this, frame.receiver());
+            }
+        }
+
+        void onWritable() throws IOException {
+            if (closed.get()) {
+                return;
+            }
+            while (true) {
+                if (current == null) {
+                    ChatFrame frame = outbound.poll();
+                    if (frame == null) {
+                        break;
+                    }
+                    current = frame.render(binaryOut);
+                    if (frame.type() == ChatFrame.TYPE_HANDSHAKE_ACK) {
+                        binaryOut = true;
+                    }
+                    if (current == null) {
+                        continue;
+                    }
+                }
+                channel.write(current);
+                if (current.hasRemaining()) {
+                    // Socket buffer is full; resume when the channel becomes writable again
+                    setWriteInterest(true);
+                    return;
+                }
+                current = null;
+            }
+
+            setWriteInterest(false);
+            writeScheduled.set(false);
+            // A sender may have enqueued after the drain but before the flag was cleared
+            if (!outbound.isEmpty() && writeScheduled.compareAndSet(false, true)) {
+                worker.requestWrite(this);
+            }
+        }
+
+        // The key is cancelled when the connection closes, which may happen on another thread
+        private void setWriteInterest(boolean write) throws IOException {
+            if (!key.isValid()) {
+                throw new ClosedChannelException();
+            }
+            try {
+                int ops = key.interestOps();
+                key.interestOps(write ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE);
+            } catch (CancelledKeyException e) {
+                throw new ClosedChannelException();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            if (username != null) {
+                server.removeClient(username, this);
+            }
+            outbound.clear();
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error during cleanup: " + e.getMessage());
+            }
+        }
+
+        private String describe() {
+            return username != null ? username : String.valueOf(channel.socket().getRemoteSocketAddress());
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package chat;
+
+import java.util.List;
+
+/**
+ * Holds frames for users who cannot take them right now, to be delivered in
+ * order when they reconnect.
+ */
+interface OfflineStore {
+    void store(String username, ChatFrame frame);
+
+    // Removes and returns everything held for the user, oldest first
+    List<ChatFrame> drain(String username);
+
+    // Frames discarded undelivered because a mailbox or the store ran out of room or time
+    long getDroppedCount();
+
+    void close();
+}
@@ -0,0 +1,77 @@
+package chat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of frames waiting to be written to one connection. Senders
+ * only ever enqueue, so a slow receiver fills its own queue instead of
+ * blocking the threads that message it.
+ */
+final class OutboundQueue {
+    private final ArrayBlockingQueue<ChatFrame> frames;
+    private final int capacity;
+    private final AtomicInteger highWater = new AtomicInteger();
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+
+    OutboundQueue(int capacity) {
+        this.capacity = capacity;
+        this.frames = new ArrayBlockingQueue<>(capacity);
+    }
+
+    // Returns false when the queue is full; the caller applies the overflow policy
+    boolean offer(ChatFrame frame) {
+        if (!frames.offer(frame)) {
+            return false;
+        }
+        enqueued.incrementAndGet();
+        int depth = frames.size();
+        int max;
+        while (depth > (max = highWater.get())) {
+            if (highWater.compareAndSet(max, depth)) {
+                break;
+            }
+        }
+        return true;
+    }
+
+    ChatFrame poll() {
+        return frames.poll();
+    }
+
+    ChatFrame take() throws InterruptedException {
+        return frames.take();
+    }
+
+    boolean isEmpty() {
+        return frames.isEmpty();
+    }
+
+    List<ChatFrame> drain() {
+        List<ChatFrame> drained = new ArrayList<>();
+        frames.drainTo(drained);
+        return drained;
+    }
+
+    void clear() {
+        frames.clear();
+    }
+
+    void recordDropped() {
+        dropped.incrementAndGet();
+    }
+
+    void recordSpilled(int count) {
+        spilled.addAndGet(count);
+    }
+
+    ConnectionStats stats(String username) {
+        return new ConnectionStats(username, frames.size(), highWater.get(), capacity,
+                enqueued.get(), dropped.get(), spilled.get());
+    }
+}
@@ -0,0 +1,28 @@
+package chat;
+
+import java.net.InetSocketAddress;
+import java.util.Set;
+
+/**
+ * Cluster-wide view of which chat node each user is connected to and where
+ * each node accepts relayed messages. Every node of a cluster must share the
+ * same directory; implementations must be safe for concurrent use.
+ */
+public interface PresenceDirectory {
+    void registerNode(String nodeId, InetSocketAddress relayAddress);
+
+    void unregisterNode(String nodeId);
+
+    // Null if the node is not (or no longer) part of the cluster
+    InetSocketAddress nodeAddress(String nodeId);
+
+    Set<String> nodeIds();
+
+    void userConnected(String username, String nodeId);
+
+    // Only forgets the user if they are still recorded on nodeId
+    void userDisconnected(String username, String nodeId);
+
+    // Null if the user is not connected anywhere
+    String nodeOf(String username);
+}
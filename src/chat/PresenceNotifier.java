@@ -0,0 +1,128 @@
+package chat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pushes online/offline changes to the connections watching those users.
+ * Changes are only noted as they happen; flush() re-reads the current state
+ * of every noted user and sends each watcher one PRESENCE frame per batch,
+ * so a user who reconnects within a batch causes no traffic at all.
+ *
+ * Frames are only sent by flush(), after the lock is released. A new watch
+ * gets its snapshot with the next batch, which keeps it ordered with the
+ * updates that follow it.
+ */
+final class PresenceNotifier {
+    private final ChatServer server;
+    // Watched username -> connections watching it, and the reverse
+    private final Map<String, Set<ChatConnection>> watchers = new HashMap<>();
+    private final Map<ChatConnection, Set<String>> watching = new HashMap<>();
+    // State last pushed for each watched user
+    private final Map<String, Boolean> published = new HashMap<>();
+    // Noted without locking, since every login and logout lands here
+    private final Set<String> changed = ConcurrentHashMap.newKeySet();
+    // Connections whose watch list changed since the last flush; they get a full snapshot
+    private final Set<ChatConnection> snapshotDue = new HashSet<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    PresenceNotifier(ChatServer server) {
+        this.server = server;
+    }
+
+    void userChanged(String username) {
+        changed.add(username);
+    }
+
+    /** Replaces what the connection watches; the current state of those users goes out with the next flush. */
+    void watch(ChatConnection connection, Collection<String> usernames) {
+        lock.lock();
+        try {
+            unwatch(connection);
+            if (usernames.isEmpty()) {
+                return;
+            }
+            for (String username : usernames) {
+                watchers.computeIfAbsent(username, u -> new HashSet<>()).add(connection);
+                // Older watchers may not have been told about a pending change yet, so keep what they saw
+                published.putIfAbsent(username, server.isOnline(username));
+            }
+            watching.put(connection, new LinkedHashSet<>(usernames));
+            snapshotDue.add(connection);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void unwatch(ChatConnection connection) {
+        lock.lock();
+        try {
+            snapshotDue.remove(connection);
+            Set<String> usernames = watching.remove(connection);
+            if (usernames == null) {
+                return;
+            }
+            for (String username : usernames) {
+                Set<ChatConnection> connections = watchers.get(username);
+                if (connections != null && connections.remove(connection) && connections.isEmpty()) {
+                    watchers.remove(username);
+                    published.remove(username);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void flush() {
+        Map<ChatConnection, Map<String, Boolean>> updates = new HashMap<>();
+        lock.lock();
+        try {
+            if (changed.isEmpty() && snapshotDue.isEmpty()) {
+                return;
+            }
+            List<String> batch = new ArrayList<>(changed);
+            changed.removeAll(batch);
+
+            for (String username : batch) {
+                Set<ChatConnection> connections = watchers.get(username);
+                if (connections == null) {
+                    continue;
+                }
+                boolean online = server.isOnline(username);
+                Boolean before = published.put(username, online);
+                if (before != null && before == online) {
+                    continue;
+                }
+                for (ChatConnection connection : connections) {
+                    if (!snapshotDue.contains(connection)) {
+                        updates.computeIfAbsent(connection, c -> new LinkedHashMap<>()).put(username, online);
+                    }
+                }
+            }
+            for (ChatConnection connection : snapshotDue) {
+                Map<String, Boolean> snapshot = new LinkedHashMap<>();
+                for (String username : watching.get(connection)) {
+                    snapshot.put(username, server.isOnline(username));
+                }
+                updates.put(connection, snapshot);
+            }
+            snapshotDue.clear();
+        } finally {
+            lock.unlock();
+        }
+        // A full queue may disconnect the watcher, which comes back here through unwatch
+        for (Map.Entry<ChatConnection, Map<String, Boolean>> update : updates.entrySet()) {
+            update.getKey().sendFrame(ChatFrame.presence(update.getValue()));
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package chat;
+
+import config.DatabaseConfig;
+import models.Message;
+import rmi.SkillSwapService;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.util.List;
+
+/**
+ * Stores routed messages through the RMI server, for engines the RMI server
+ * owns exclusively such as the message log. One remote call per batch.
+ */
+class RmiMessageStore extends WriteBehindMessageStore {
+    private final SkillSwapService service;
+
+    RmiMessageStore() throws RemoteException, NotBoundException {
+        this.service = (SkillSwapService) LocateRegistry.getRegistry(DatabaseConfig.RMI_HOST, DatabaseConfig.RMI_PORT)
+                .lookup(DatabaseConfig.RMI_SERVICE_NAME);
+    }
+
+    @Override
+    protected void store(List<Message> batch) throws RemoteException {
+        // The service stores copies, so the ids come back separately
+        int[] ids = service.saveMessages(batch);
+        for (int i = 0; i < ids.length && i < batch.size(); i++) {
+            batch.get(i).setId(ids[i]);
+        }
+    }
+
+    @Override
+    protected void release() {
+        // Nothing held locally
+    }
+}
@@ -0,0 +1,18 @@
+package chat;
+
+import java.sql.SQLException;
+import java.util.Set;
+
+/**
+ * Durable room membership. The chat server keeps each room's members in
+ * memory once loaded and writes joins and leaves through to the store.
+ */
+interface RoomStore {
+    Set<String> members(String room) throws SQLException;
+
+    void addMember(String room, String username) throws SQLException;
+
+    void removeMember(String room, String username) throws SQLException;
+
+    void close();
+}
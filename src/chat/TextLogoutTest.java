@@ -0,0 +1,107 @@
+package chat;
+
+import config.DatabaseConfig;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Checks that a text client's logout line closes its connection on every
+ * engine and is never routed: nothing is persisted or put in a mailbox for
+ * a user called "DISCONNECT", while an ordinary line sent before it is.
+ *
+ * Usage: java chat.TextLogoutTest [port]
+ */
+public class TextLogoutTest {
+    private static final int CONNECT_ATTEMPTS = 50;
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 5700;
+        for (String engine : new String[] {"thread", "nio"}) {
+            run(engine, port++);
+        }
+        System.out.println("OK");
+    }
+
+    private static void run(String engine, int port) throws Exception {
+        List<String> appended = Collections.synchronizedList(new ArrayList<>());
+        List<String> stored = Collections.synchronizedList(new ArrayList<>());
+        MessageStore messageStore = new MessageStore() {
+            @Override
+            public void append(String sender, String receiver, String text, IntConsumer onStored,
+                               Runnable onRejected) {
+                appended.add(receiver);
+            }
+
+            @Override
+            public long getRejectedCount() {
+                return 0;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        OfflineStore offlineStore = new InMemoryOfflineStore(DatabaseConfig.CHAT_MAILBOX_MAX_PER_USER) {
+            @Override
+            public void store(String username, ChatFrame frame) {
+                stored.add(username);
+                super.store(username, frame);
+            }
+        };
+
+        ChatServer server = new ChatServer(engine, port, "drop", messageStore, null, offlineStore);
+        Thread serverThread = new Thread(server::start, "chat-server-" + engine);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        try (Socket socket = connect(port)) {
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            out.println("alice");
+            out.println("bob:hello");
+            out.println(ChatFrame.TEXT_DISCONNECT + "alice");
+
+            socket.setSoTimeout(5000);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), ChatFrame.TEXT_CHARSET));
+            try {
+                while (in.readLine() != null) {
+                    // Nothing is addressed to alice; wait for the server to hang up
+                }
+            } catch (SocketTimeoutException e) {
+                throw new AssertionError(engine + ": the server kept the connection open after logout");
+            }
+        } finally {
+            // Waits for mailbox writes in flight
+            server.stop();
+        }
+
+        check(appended.equals(Collections.singletonList("bob")), engine + ": persisted " + appended);
+        check(stored.equals(Collections.singletonList("bob")), engine + ": stored offline " + stored);
+        System.out.println(engine + ": logout closed the connection and stored nothing");
+    }
+
+    private static Socket connect(int port) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return new Socket("localhost", port);
+            } catch (IOException e) {
+                if (attempt == CONNECT_ATTEMPTS) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
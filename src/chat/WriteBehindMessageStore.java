@@ -0,0 +1,162 @@
+package chat;
+
+import config.DatabaseConfig;
+import models.Message;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+/**
+ * Write-behind message store. Routing threads only enqueue; a single writer
+ * stores whatever has queued up since its last write as one batch. An idle
+ * server stores each message on its own, a busy one amortizes the commit
+ * over up to CHAT_PERSIST_BATCH_SIZE messages. Subclasses decide where a
+ * batch goes.
+ */
+abstract class WriteBehindMessageStore implements MessageStore {
+    private static final long RETRY_DELAY_MS = 500;
+
+    private final BlockingQueue<PendingMessage> queue =
+            new ArrayBlockingQueue<>(DatabaseConfig.CHAT_PERSIST_QUEUE_CAPACITY);
+    private final AtomicLong rejected = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    WriteBehindMessageStore() {
+        this.writer = new Thread(this::writeLoop, "chat-message-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** Stores the batch in order, all or nothing, and sets the message ids. */
+    protected abstract void store(List<Message> batch) throws SQLException, IOException;
+
+    // Called once the queue has been written out
+    protected abstract void release();
+
+    @Override
+    public void append(String sender, String receiver, String text, IntConsumer onStored, Runnable onRejected) {
+        // A full queue means storage is behind; slow the sender down a little, but never an I/O thread
+        long timeout = NioChatEngine.isIoThread() ? 0 : DatabaseConfig.CHAT_PERSIST_OFFER_TIMEOUT_MS;
+        try {
+            if (queue.offer(new PendingMessage(sender, receiver, text, onStored, onRejected), timeout,
+                    TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // The message was delivered but will not be stored; the sender is told, so it can store it itself
+        long count = rejected.incrementAndGet();
+        if (count == 1 || count % 1000 == 0) {
+            System.err.println("Chat message queue full; message from " + sender + " not stored ("
+                    + count + " so far)");
+        }
+        if (onRejected != null) {
+            onRejected.run();
+        }
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    private void writeLoop() {
+        List<PendingMessage> batch = new ArrayList<>(DatabaseConfig.CHAT_PERSIST_BATCH_SIZE);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingMessage first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, DatabaseConfig.CHAT_PERSIST_BATCH_SIZE - 1);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                System.err.println("Chat message writer interrupted with " + queue.size() + " messages queued");
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<PendingMessage> batch) throws InterruptedException {
+        for (int attempt = 1; attempt <= DatabaseConfig.CHAT_PERSIST_MAX_ATTEMPTS; attempt++) {
+            List<Message> messages = new ArrayList<>(batch.size());
+            for (PendingMessage pending : batch) {
+                messages.add(new Message(pending.sender, pending.receiver, pending.text));
+            }
+            try {
+                store(messages);
+            } catch (SQLException | IOException e) {
+                System.err.println("Error storing " + batch.size() + " chat messages (attempt " + attempt + "): "
+                        + e.getMessage());
+                if (attempt < DatabaseConfig.CHAT_PERSIST_MAX_ATTEMPTS) {
+                    Thread.sleep(RETRY_DELAY_MS * attempt);
+                }
+                continue;
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                IntConsumer onStored = batch.get(i).onStored;
+                int id = messages.get(i).getId();
+                if (onStored != null && id > 0) {
+                    onStored.accept(id);
+                }
+            }
+            return;
+        }
+        System.err.println("Dropping " + batch.size() + " chat messages after "
+                + DatabaseConfig.CHAT_PERSIST_MAX_ATTEMPTS + " failed attempts");
+        reject(batch);
+    }
+
+    private static void reject(List<PendingMessage> messages) {
+        for (PendingMessage pending : messages) {
+            if (pending.onRejected != null) {
+                pending.onRejected.run();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            System.err.println("Chat message writer stopped with " + queue.size() + " messages unsaved");
+            List<PendingMessage> unsaved = new ArrayList<>();
+            queue.drainTo(unsaved);
+            reject(unsaved);
+        }
+        release();
+    }
+
+    private static final class PendingMessage {
+        final String sender;
+        final String receiver;
+        final String text;
+        final IntConsumer onStored;
+        final Runnable onRejected;
+
+        PendingMessage(String sender, String receiver, String text, IntConsumer onStored, Runnable onRejected) {
+            this.sender = sender;
+            this.receiver = receiver;
+            this.text = text;
+            this.onStored = onStored;
+            this.onRejected = onRejected;
+        }
+    }
+}
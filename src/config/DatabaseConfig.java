@@ -6,9 +6,114 @@ public class DatabaseConfig {
     public static final String DB_PASSWORD = "";
     public static final String JDBC_DRIVER = "com.mysql.cj.jdbc.Driver";
 
+    // Connection pool
+    public static final int POOL_MIN_IDLE = 2;
+    public static final int POOL_MAX_SIZE = 20;
+    public static final long POOL_CONNECTION_TIMEOUT_MS = 5000;
+    public static final long POOL_IDLE_TIMEOUT_MS = 10 * 60 * 1000;
+    public static final long POOL_MAX_LIFETIME_MS = 30 * 60 * 1000;
+    public static final long POOL_VALIDATION_INTERVAL_MS = 30 * 1000;
+    public static final int POOL_VALIDATION_TIMEOUT_SECONDS = 2;
+    public static final long POOL_HOUSEKEEPING_INTERVAL_MS = 30 * 1000;
+    public static final int STATEMENT_CACHE_SIZE = 64;
+
+    // Max user ids per IN-list when bulk loading skills
+    public static final int SKILL_BATCH_SIZE = 1000;
+
+    // Profiles served by getUserProfile and login, bounded by estimated heap size
+    public static final long PROFILE_CACHE_MAX_BYTES = 16L * 1024 * 1024;
+    // Bounds staleness after edits made outside this server
+    public static final long PROFILE_CACHE_EXPIRE_MS = 10 * 60 * 1000;
+
+    // Keyset pages of user summaries
+    public static final int USER_PAGE_SIZE = 50;
+    public static final int USER_MAX_PAGE_SIZE = 500;
+    public static final int USER_SUMMARY_TOP_SKILLS = 3;
+
+    // Skill exchange matching
+    public static final int MATCH_PAGE_SIZE = 20;
+    public static final int MATCH_MAX_PAGE_SIZE = 100;
+    public static final long MATCH_TIME_BUDGET_MS = 200;
+
+    // Where chat messages are kept: "jdbc" (the messages table) or "log" (a memory-mapped message log
+    // owned by the RMI server; the chat server then stores through the service)
+    public static final String MESSAGE_STORE_ENGINE = "jdbc";
+    // Message log files, relative to the user's home directory
+    public static final String MESSAGE_LOG_DIR = ".skillswap/message-log";
+    public static final int MESSAGE_LOG_SEGMENT_BYTES = 64 * 1024 * 1024;
+    // Every Nth message of a conversation is indexed, so a page read follows at most N extra records
+    public static final int MESSAGE_LOG_INDEX_INTERVAL = 32;
+    public static final int MESSAGE_LOG_SYNC_INTERVAL_MS = 200;
+    // Old segments of the message log are deleted past either limit; 0 keeps every message, as the
+    // messages table does. The newest segment is always kept.
+    public static final int MESSAGE_LOG_RETENTION_DAYS = 0;
+    public static final long MESSAGE_LOG_MAX_BYTES = 0;
+
     public static final String RMI_HOST = "localhost";
     public static final int RMI_PORT = 1099;
     public static final String RMI_SERVICE_NAME = "SkillSwapService";
+    // Background threads and per-call timeout for the GUI's asynchronous service calls
+    public static final int CLIENT_RMI_THREADS = 4;
+    public static final long CLIENT_RMI_TIMEOUT_MS = 15000;
 
     public static final int CHAT_SERVER_PORT = 5500;
+    // "thread" (platform thread per connection), "virtual" (virtual thread per connection, JDK 21+)
+    // or "nio" (selector-based)
+    public static final String CHAT_SERVER_ENGINE = "thread";
+    // How long a client waits for the server to accept binary framing before staying on text
+    public static final int CHAT_HANDSHAKE_TIMEOUT_MS = 2000;
+    public static final int CHAT_NIO_IO_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    public static final int CHAT_HISTORY_PAGE_SIZE = 50;
+    public static final int CHAT_HISTORY_MAX_PAGE_SIZE = 500;
+    // Client-side history cache, relative to the user's home directory
+    public static final String CHAT_CACHE_DIR = ".skillswap/chat-cache";
+    public static final int CHAT_CACHE_MAX_MESSAGES = 1000;
+    public static final int CONVERSATION_PAGE_SIZE = 100;
+    public static final int CONVERSATION_MAX_PAGE_SIZE = 1000;
+    // Frames buffered per connection before the overflow policy applies
+    public static final int CHAT_OUTBOUND_QUEUE_CAPACITY = 1024;
+    // What to do when a receiver's queue is full: "drop" the new frame, "disconnect" the
+    // receiver, or "spill" its backlog to the offline store and disconnect it
+    public static final String CHAT_OVERFLOW_POLICY = "drop";
+    // The chat server stores every routed message through a write-behind queue
+    public static final boolean CHAT_PERSIST_MESSAGES = true;
+    public static final int CHAT_PERSIST_QUEUE_CAPACITY = 10000;
+    // How long a routing thread waits for room in a full queue before the message goes unsaved; NIO threads never wait
+    public static final int CHAT_PERSIST_OFFER_TIMEOUT_MS = 100;
+    // Most messages inserted and committed together in one batch
+    public static final int CHAT_PERSIST_BATCH_SIZE = 500;
+    public static final int CHAT_PERSIST_MAX_ATTEMPTS = 3;
+    // Message search
+    public static final int SEARCH_PAGE_SIZE = 20;
+    public static final int SEARCH_MAX_PAGE_SIZE = 100;
+    public static final int SEARCH_SNIPPET_CHARS = 120;
+    // The index also tails the message store, for messages saved outside the RMI server
+    public static final int SEARCH_TAIL_INTERVAL_MS = 1000;
+    public static final int SEARCH_TAIL_BATCH_SIZE = 5000;
+    // Ids re-read on every tail; covers one chat server batch committing late
+    public static final int SEARCH_TAIL_OVERLAP = 2 * CHAT_PERSIST_BATCH_SIZE;
+    public static final int SEARCH_HANDOFF_CAPACITY = 1000;
+    // Server-side offline mailboxes, relative to the user's home directory
+    public static final String CHAT_MAILBOX_DIR = ".skillswap/chat-mailbox";
+    public static final int CHAT_MAILBOX_SEGMENT_BYTES = 16 * 1024 * 1024;
+    public static final long CHAT_MAILBOX_MAX_BYTES = 256L * 1024 * 1024;
+    public static final int CHAT_MAILBOX_RETENTION_HOURS = 7 * 24;
+    // Half a queue, so a reconnecting user's backlog always fits next to live traffic
+    public static final int CHAT_MAILBOX_MAX_PER_USER = CHAT_OUTBOUND_QUEUE_CAPACITY / 2;
+    public static final int CHAT_MAILBOX_SYNC_INTERVAL_MS = 1000;
+    // Host other cluster nodes use to reach this node's relay port
+    public static final String CHAT_CLUSTER_HOST = "localhost";
+    // Frames buffered per inter-node link
+    public static final int CHAT_CLUSTER_LINK_QUEUE_CAPACITY = 8192;
+    // Framed clients ping this often and are closed after missing about three pings
+    public static final int CHAT_HEARTBEAT_INTERVAL_MS = 30000;
+    public static final int CHAT_IDLE_TIMEOUT_MS = 90000;
+    public static final int CHAT_TIMER_TICK_MS = 100;
+    // Presence changes are pushed to watchers at most this often
+    public static final int CHAT_PRESENCE_BATCH_MS = 250;
+    public static final int CHAT_PRESENCE_MAX_WATCHED = 1000;
+    // Room posts are fanned out on these threads; a room always uses the same one, so posts stay in order
+    public static final int CHAT_ROOM_FANOUT_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    public static final int CHAT_ROOM_FANOUT_QUEUE_CAPACITY = 10000;
+    public static final int CHAT_ROOM_MAX_MEMBERS = 10000;
 }
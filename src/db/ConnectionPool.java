@@ -0,0 +1,440 @@
+package db;
+
+import config.DatabaseConfig;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of JDBC connections with validation, idle eviction and a
+ * per-connection prepared statement cache.
+ *
+ * Borrowed connections are proxies: close() hands the physical connection back
+ * to the pool, and prepareStatement() returns a cached statement whose close()
+ * only clears its parameters. Any other statements created during a borrow are
+ * closed when the connection is returned. Every borrow gets a new proxy, and
+ * a proxy and its statements stop working once that proxy is closed.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int minIdle;
+    private final int maxSize;
+    private final long connectionTimeoutMs;
+    private final long idleTimeoutMs;
+    private final long maxLifetimeMs;
+    private final long validationIntervalMs;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+
+    // LIFO so the most recently used (warmest) connections are handed out first
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    public ConnectionPool() throws SQLException {
+        this(DatabaseConfig.DB_URL, DatabaseConfig.DB_USER, DatabaseConfig.DB_PASSWORD,
+                DatabaseConfig.POOL_MIN_IDLE, DatabaseConfig.POOL_MAX_SIZE,
+                DatabaseConfig.POOL_CONNECTION_TIMEOUT_MS, DatabaseConfig.POOL_IDLE_TIMEOUT_MS,
+                DatabaseConfig.POOL_MAX_LIFETIME_MS, DatabaseConfig.POOL_VALIDATION_INTERVAL_MS,
+                DatabaseConfig.POOL_VALIDATION_TIMEOUT_SECONDS, DatabaseConfig.STATEMENT_CACHE_SIZE,
+                DatabaseConfig.POOL_HOUSEKEEPING_INTERVAL_MS);
+    }
+
+    public ConnectionPool(String url, String user, String password, int minIdle, int maxSize,
+                          long connectionTimeoutMs, long idleTimeoutMs, long maxLifetimeMs,
+                          long validationIntervalMs, int validationTimeoutSeconds,
+                          int statementCacheSize, long housekeepingIntervalMs) throws SQLException {
+        try {
+            Class.forName(DatabaseConfig.JDBC_DRIVER);
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("MySQL JDBC Driver not found", e);
+        }
+        if (maxSize <= 0 || minIdle < 0 || minIdle > maxSize) {
+            throw new IllegalArgumentException("Invalid pool sizing: minIdle=" + minIdle + ", maxSize=" + maxSize);
+        }
+
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minIdle = minIdle;
+        this.maxSize = maxSize;
+        this.connectionTimeoutMs = connectionTimeoutMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.maxLifetimeMs = maxLifetimeMs;
+        this.validationIntervalMs = validationIntervalMs;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 0, housekeepingIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        long start = System.nanoTime();
+        waiting.incrementAndGet();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(connectionTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+        recordWait(System.nanoTime() - start);
+
+        if (!acquired) {
+            timeouts.incrementAndGet();
+            throw new SQLTransientConnectionException("Timed out after " + connectionTimeoutMs
+                    + " ms waiting for a database connection (active=" + active.get() + ", max=" + maxSize + ")");
+        }
+
+        try {
+            PooledConnection pooled = takeIdle();
+            if (pooled == null) {
+                pooled = open();
+            }
+            active.incrementAndGet();
+            borrows.incrementAndGet();
+            return pooled.borrow();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection takeIdle() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (isUsable(pooled)) {
+                return pooled;
+            }
+            discard(pooled);
+        }
+        return null;
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        long now = System.currentTimeMillis();
+        if (now - pooled.createdAt > maxLifetimeMs) {
+            return false;
+        }
+        if (now - pooled.lastReturned < validationIntervalMs) {
+            return true;
+        }
+        try {
+            return pooled.physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, user, password);
+        total.incrementAndGet();
+        created.incrementAndGet();
+        return new PooledConnection(physical);
+    }
+
+    private void release(PooledConnection pooled) {
+        active.decrementAndGet();
+        try {
+            if (closed || pooled.broken || pooled.physical.isClosed()) {
+                discard(pooled);
+                return;
+            }
+            // Leave no transaction or session state behind for the next borrower
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            pooled.clearStatements();
+            pooled.lastReturned = System.currentTimeMillis();
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            discard(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        total.decrementAndGet();
+        evicted.incrementAndGet();
+        pooled.closeQuietly();
+    }
+
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext() && idle.size() > minIdle) {
+                PooledConnection pooled = it.next();
+                boolean expired = now - pooled.lastReturned > idleTimeoutMs
+                        || now - pooled.createdAt > maxLifetimeMs;
+                if (expired && idle.removeFirstOccurrence(pooled)) {
+                    discard(pooled);
+                }
+            }
+
+            while (!closed && idle.size() < minIdle && total.get() < maxSize) {
+                PooledConnection pooled = open();
+                pooled.lastReturned = System.currentTimeMillis();
+                idle.offerLast(pooled);
+            }
+        } catch (SQLException e) {
+            System.err.println("Connection pool could not top up idle connections: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("Connection pool housekeeping error: " + e.getMessage());
+        }
+    }
+
+    private void recordWait(long nanos) {
+        totalWaitNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxWaitNanos.get())) {
+            if (maxWaitNanos.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    public PoolStats getStats() {
+        long borrowCount = borrows.get();
+        return new PoolStats(
+                total.get(),
+                active.get(),
+                idle.size(),
+                waiting.get(),
+                maxSize,
+                borrowCount,
+                timeouts.get(),
+                created.get(),
+                evicted.get(),
+                borrowCount == 0 ? 0 : totalWaitNanos.get() / borrowCount / 1000,
+                maxWaitNanos.get() / 1000,
+                statementHits.get(),
+                statementMisses.get());
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    private final class PooledConnection {
+        private final Connection physical;
+        private final long createdAt = System.currentTimeMillis();
+        private final Map<String, PreparedStatement> statements;
+        private final List<Statement> borrowScoped = new ArrayList<>();
+        private volatile long lastReturned = createdAt;
+        private volatile boolean broken;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > statementCacheSize) {
+                        closeStatementQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        // Each borrow gets its own proxy and lease, so a proxy kept after close() never reaches a later borrower
+        Connection borrow() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Lease());
+        }
+
+        private final class Lease implements InvocationHandler {
+            private final AtomicBoolean open = new AtomicBoolean(true);
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("close")) {
+                    if (open.compareAndSet(true, false)) {
+                        release(PooledConnection.this);
+                    }
+                    return null;
+                }
+                if (name.equals("isClosed")) {
+                    return !open.get() || physical.isClosed();
+                }
+                checkOpen();
+                return call(this, method, args);
+            }
+
+            void checkOpen() throws SQLException {
+                if (!open.get()) {
+                    throw new SQLException("Connection has already been returned to the pool");
+                }
+            }
+        }
+
+        private Object call(Lease lease, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("prepareStatement") && statementCacheSize > 0 && isCacheable(args)) {
+                return cachedStatement(lease, args);
+            }
+            try {
+                Object result = method.invoke(physical, args);
+                if (result instanceof Statement) {
+                    borrowScoped.add((Statement) result);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw inspect(e.getCause());
+            }
+        }
+
+        // Only prepareStatement(String) and prepareStatement(String, int autoGeneratedKeys)
+        private boolean isCacheable(Object[] args) {
+            return args.length == 1 || (args.length == 2 && args[1] instanceof Integer);
+        }
+
+        private Object cachedStatement(Lease lease, Object[] args) throws SQLException {
+            String sql = (String) args[0];
+            String key = args.length == 1 ? sql : args[1] + "|" + sql;
+
+            PreparedStatement stmt = statements.get(key);
+            if (stmt != null && !stmt.isClosed()) {
+                statementHits.incrementAndGet();
+            } else {
+                statementMisses.incrementAndGet();
+                try {
+                    stmt = args.length == 1
+                            ? physical.prepareStatement(sql)
+                            : physical.prepareStatement(sql, (Integer) args[1]);
+                } catch (SQLException e) {
+                    throw (SQLException) inspect(e);
+                }
+                statements.put(key, stmt);
+            }
+            return wrapStatement(lease, stmt);
+        }
+
+        // Cached statements outlive the borrow, so their proxies check the lease they were handed out under
+        private PreparedStatement wrapStatement(Lease lease, PreparedStatement stmt) {
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                        if (method.getName().equals("close")) {
+                            // Keep the physical statement cached; only drop per-use state
+                            if (lease.open.get() && !stmt.isClosed()) {
+                                stmt.clearParameters();
+                            }
+                            return null;
+                        }
+                        lease.checkOpen();
+                        try {
+                            return method.invoke(stmt, args);
+                        } catch (InvocationTargetException e) {
+                            throw inspect(e.getCause());
+                        }
+                    });
+        }
+
+        // SQLState class 08 means the connection itself is gone
+        private Throwable inspect(Throwable cause) {
+            if (cause instanceof SQLException) {
+                String state = ((SQLException) cause).getSQLState();
+                if (state != null && state.startsWith("08")) {
+                    broken = true;
+                }
+            }
+            return cause;
+        }
+
+        void clearStatements() throws SQLException {
+            for (Statement stmt : borrowScoped) {
+                closeStatementQuietly(stmt);
+            }
+            borrowScoped.clear();
+            for (PreparedStatement stmt : statements.values()) {
+                if (!stmt.isClosed()) {
+                    ResultSet rs = stmt.getResultSet();
+                    if (rs != null) {
+                        rs.close();
+                    }
+                    stmt.clearParameters();
+                }
+            }
+        }
+
+        void closeQuietly() {
+            for (Statement stmt : borrowScoped) {
+                closeStatementQuietly(stmt);
+            }
+            borrowScoped.clear();
+            for (PreparedStatement stmt : statements.values()) {
+                closeStatementQuietly(stmt);
+            }
+            statements.clear();
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                System.err.println("Error closing pooled connection: " + e.getMessage());
+            }
+        }
+
+        private void closeStatementQuietly(Statement stmt) {
+            try {
+                stmt.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+}
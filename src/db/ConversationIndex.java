@@ -0,0 +1,134 @@
+package db;
+
+import models.Message;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Maintains the conversations table: one row per user and chat partner with
+ * the latest message, a preview and the user's unread count. Rows are
+ * upserted in the same transaction that inserts the messages, so the inbox
+ * never needs to scan the messages table. The table is created at startup
+ * by ensureTable, since DDL would commit that transaction early.
+ */
+public final class ConversationIndex {
+    public static final int PREVIEW_LENGTH = 100;
+
+    private static final String CREATE_SQL =
+            "CREATE TABLE IF NOT EXISTS conversations (" +
+            "owner_username VARCHAR(50) NOT NULL, " +
+            "partner_username VARCHAR(50) NOT NULL, " +
+            "last_message_id INT NOT NULL, " +
+            "last_sender_username VARCHAR(50) NOT NULL, " +
+            "last_timestamp TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+            "preview VARCHAR(" + PREVIEW_LENGTH + ") NOT NULL, " +
+            "unread_count INT NOT NULL DEFAULT 0, " +
+            "PRIMARY KEY (owner_username, partner_username), " +
+            "KEY idx_conversations_inbox (owner_username, last_message_id))";
+
+    // Existing history counts as read; each side gets its partner's latest message
+    private static final String BACKFILL_SQL =
+            "INSERT IGNORE INTO conversations (owner_username, partner_username, last_message_id, " +
+            "last_sender_username, last_timestamp, preview, unread_count) " +
+            "SELECT p.owner_username, p.partner_username, m.id, m.sender_username, m.timestamp, " +
+            "LEFT(m.message, " + PREVIEW_LENGTH + "), 0 FROM (" +
+            "SELECT owner_username, partner_username, MAX(last_id) AS last_id FROM (" +
+            "SELECT sender_username AS owner_username, receiver_username AS partner_username, MAX(id) AS last_id " +
+            "FROM messages GROUP BY sender_username, receiver_username " +
+            "UNION ALL " +
+            "SELECT receiver_username, sender_username, MAX(id) FROM messages " +
+            "GROUP BY receiver_username, sender_username) u " +
+            "GROUP BY owner_username, partner_username) p " +
+            "JOIN messages m ON m.id = p.last_id";
+
+    // Assignments run left to right, so last_message_id must be compared before it is updated.
+    // The row alias needs MySQL 8.0.19 or later; VALUES() is deprecated since 8.0.20.
+    private static final String UPSERT_SQL =
+            "INSERT INTO conversations (owner_username, partner_username, last_message_id, " +
+            "last_sender_username, preview, unread_count) VALUES (?, ?, ?, ?, ?, ?) AS new " +
+            "ON DUPLICATE KEY UPDATE " +
+            "last_sender_username = IF(new.last_message_id > last_message_id, new.last_sender_username, last_sender_username), " +
+            "last_timestamp = IF(new.last_message_id > last_message_id, CURRENT_TIMESTAMP, last_timestamp), " +
+            "preview = IF(new.last_message_id > last_message_id, new.preview, preview), " +
+            "unread_count = unread_count + new.unread_count, " +
+            "last_message_id = GREATEST(last_message_id, new.last_message_id)";
+
+    private static final ReentrantLock initLock = new ReentrantLock();
+    private static volatile boolean ready;
+
+    private ConversationIndex() {}
+
+    /**
+     * Creates the table if it is missing and fills it from the existing
+     * messages. Called once at startup, outside any transaction, by every
+     * process that records messages.
+     */
+    public static void ensureTable(Connection conn) throws SQLException {
+        if (ready) {
+            return;
+        }
+        initLock.lock();
+        try {
+            if (ready) {
+                return;
+            }
+            boolean exists;
+            try (ResultSet rs = conn.getMetaData().getTables(conn.getCatalog(), null, "conversations", null)) {
+                exists = rs.next();
+            }
+            if (!exists) {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.executeUpdate(CREATE_SQL);
+                    stmt.executeUpdate(BACKFILL_SQL);
+                }
+            }
+            ready = true;
+        } finally {
+            initLock.unlock();
+        }
+    }
+
+    /**
+     * Adds the stored messages (ids set) to both participants' conversations.
+     * Runs in the caller's transaction; the table must already exist.
+     */
+    public static void recordMessages(Connection conn, List<Message> messages) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(UPSERT_SQL);
+        for (Message message : messages) {
+            String sender = message.getSenderUsername();
+            String receiver = message.getReceiverUsername();
+            String preview = preview(message.getMessage());
+            addRow(stmt, sender, receiver, message.getId(), sender, preview, 0);
+            if (!sender.equals(receiver)) {
+                addRow(stmt, receiver, sender, message.getId(), sender, preview, 1);
+            }
+        }
+        stmt.executeBatch();
+    }
+
+    private static void addRow(PreparedStatement stmt, String owner, String partner, int messageId,
+                               String sender, String preview, int unread) throws SQLException {
+        stmt.setString(1, owner);
+        stmt.setString(2, partner);
+        stmt.setInt(3, messageId);
+        stmt.setString(4, sender);
+        stmt.setString(5, preview);
+        stmt.setInt(6, unread);
+        stmt.addBatch();
+    }
+
+    private static String preview(String text) {
+        String flat = text.replace('\r', ' ').replace('\n', ' ');
+        if (flat.length() <= PREVIEW_LENGTH) {
+            return flat;
+        }
+        // Do not cut a surrogate pair in half
+        int end = Character.isHighSurrogate(flat.charAt(PREVIEW_LENGTH - 1)) ? PREVIEW_LENGTH - 1 : PREVIEW_LENGTH;
+        return flat.substring(0, end);
+    }
+}
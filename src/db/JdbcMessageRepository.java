@@ -0,0 +1,167 @@
+package db;
+
+import models.Message;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** Messages as rows of the messages table. */
+public class JdbcMessageRepository implements MessageRepository {
+    private static final String INSERT_SQL =
+            "INSERT INTO messages (sender_username, receiver_username, message) VALUES (?, ?, ?)";
+
+    private final ConnectionPool pool;
+
+    public JdbcMessageRepository(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void saveAll(List<Message> messages) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            PreparedStatement stmt = conn.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS);
+            for (Message message : messages) {
+                stmt.setString(1, message.getSenderUsername());
+                stmt.setString(2, message.getReceiverUsername());
+                stmt.setString(3, message.getMessage());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+
+            ResultSet keys = stmt.getGeneratedKeys();
+            for (int i = 0; i < messages.size() && keys.next(); i++) {
+                messages.get(i).setId(keys.getInt(1));
+            }
+            keys.close();
+
+            ConversationIndex.recordMessages(conn, messages);
+            conn.commit();
+        }
+    }
+
+    @Override
+    public List<Message> getChatHistory(String user1, String user2) throws SQLException {
+        List<Message> messages = new ArrayList<>();
+        try (Connection conn = pool.getConnection()) {
+            String sql = "SELECT * FROM messages WHERE " +
+                    "(sender_username = ? AND receiver_username = ?) OR " +
+                    "(sender_username = ? AND receiver_username = ?) " +
+                    "ORDER BY timestamp ASC";
+            PreparedStatement stmt = conn.prepareStatement(sql);
+            stmt.setString(1, user1);
+            stmt.setString(2, user2);
+            stmt.setString(3, user2);
+            stmt.setString(4, user1);
+
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                messages.add(mapMessage(rs));
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public List<Message> getChatHistoryBefore(String user1, String user2, int beforeId, int limit) throws SQLException {
+        List<Message> messages = new ArrayList<>();
+        try (Connection conn = pool.getConnection()) {
+            String sql = "SELECT * FROM messages WHERE " +
+                    "((sender_username = ? AND receiver_username = ?) OR " +
+                    "(sender_username = ? AND receiver_username = ?)) " +
+                    "AND id < ? ORDER BY id DESC LIMIT ?";
+            PreparedStatement stmt = conn.prepareStatement(sql);
+            stmt.setString(1, user1);
+            stmt.setString(2, user2);
+            stmt.setString(3, user2);
+            stmt.setString(4, user1);
+            stmt.setInt(5, beforeId > 0 ? beforeId : Integer.MAX_VALUE);
+            stmt.setInt(6, limit);
+
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                messages.add(mapMessage(rs));
+            }
+        }
+        // Fetched newest-first to hit the cursor with a bounded scan; callers expect ascending order
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    @Override
+    public List<Message> getChatHistoryAfter(String user1, String user2, int afterId, int limit) throws SQLException {
+        List<Message> messages = new ArrayList<>();
+        try (Connection conn = pool.getConnection()) {
+            String sql = "SELECT * FROM messages WHERE " +
+                    "((sender_username = ? AND receiver_username = ?) OR " +
+                    "(sender_username = ? AND receiver_username = ?)) " +
+                    "AND id > ? ORDER BY id ASC LIMIT ?";
+            PreparedStatement stmt = conn.prepareStatement(sql);
+            stmt.setString(1, user1);
+            stmt.setString(2, user2);
+            stmt.setString(3, user2);
+            stmt.setString(4, user1);
+            stmt.setInt(5, afterId);
+            stmt.setInt(6, limit);
+
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                messages.add(mapMessage(rs));
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public List<Message> getAllUserMessages(String username) throws SQLException {
+        List<Message> messages = new ArrayList<>();
+        try (Connection conn = pool.getConnection()) {
+            String sql = "SELECT * FROM messages WHERE sender_username = ? OR receiver_username = ? ORDER BY timestamp DESC";
+            PreparedStatement stmt = conn.prepareStatement(sql);
+            stmt.setString(1, username);
+            stmt.setString(2, username);
+
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                messages.add(mapMessage(rs));
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public List<Message> getMessagesAfter(int afterId, int limit) throws SQLException {
+        List<Message> messages = new ArrayList<>();
+        try (Connection conn = pool.getConnection()) {
+            PreparedStatement stmt = conn.prepareStatement("SELECT * FROM messages WHERE id > ? ORDER BY id ASC LIMIT ?");
+            stmt.setInt(1, afterId);
+            stmt.setInt(2, limit);
+
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                messages.add(mapMessage(rs));
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public void close() {
+        // The pool belongs to the caller
+    }
+
+    static Message mapMessage(ResultSet rs) throws SQLException {
+        Message message = new Message();
+        message.setId(rs.getInt("id"));
+        message.setSenderUsername(rs.getString("sender_username"));
+        message.setReceiverUsername(rs.getString("receiver_username"));
+        message.setMessage(rs.getString("message"));
+        message.setTimestamp(rs.getTimestamp("timestamp").toLocalDateTime());
+        return message;
+    }
+}
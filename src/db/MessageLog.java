@@ -0,0 +1,511 @@
+package db;
+
+import config.DatabaseConfig;
+import models.Message;
+import util.SegmentedLog;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Local message store: an append-only SegmentedLog of memory-mapped files.
+ * Each record points back at the previous record of its conversation, and
+ * an in-memory index keeps, per conversation, the newest record plus every
+ * MESSAGE_LOG_INDEX_INTERVAL-th one. A history page is found through the
+ * sparse index and read by following at most a page plus one interval of
+ * back pointers, without touching other conversations.
+ *
+ * Record body layout:
+ *
+ *   int32  message id
+ *   int64  timestamp, epoch seconds UTC; int32 nanos
+ *   int64  position of the previous record of the conversation, or -1
+ *   uint16 sender length, sender (UTF-8); uint16 receiver length, receiver
+ *   int32  text length, text (UTF-8)
+ *
+ * Writes land in the page cache and are forced to disk every
+ * MESSAGE_LOG_SYNC_INTERVAL_MS by the log's sync thread, without holding the
+ * lock readers and writers use. On open the log is replayed up to the first
+ * torn record of each segment and writing resumes in a new segment; a
+ * conversation whose older records were lost in a crash ends where they
+ * were. Messages are never updated, so there is nothing to compact, but
+ * whole segments can be retired oldest first by age (MESSAGE_LOG_RETENTION_DAYS)
+ * or total size (MESSAGE_LOG_MAX_BYTES). Both are off by default, since the
+ * log replaces the messages table, which keeps every message too. A
+ * conversation that loses its older segments starts at its oldest surviving
+ * record; one that loses all of them disappears from the log. The
+ * conversations table stays in the database, so the inbox works the same
+ * with either engine.
+ */
+public class MessageLog implements MessageRepository {
+    private static final int BODY_FIXED = 4 + 8 + 4 + 8 + 2 + 2 + 4;
+    private static final long NO_POSITION = SegmentedLog.NO_POSITION;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final int indexInterval;
+    private final long retentionSeconds;
+    private final long maxBytes;
+    private final int segmentBytes;
+    // Null when no conversation index is kept, e.g. in benchmarks
+    private final ConnectionPool pool;
+    private final SegmentedLog log;
+    private final Map<String, Chain> chains = new HashMap<>();
+    // Every record, for scans in id order
+    private final Chain all = new Chain();
+    private final Map<String, Set<String>> chainsByUser = new HashMap<>();
+    // Newest message timestamp in each segment, epoch seconds UTC, by segment id
+    private final Map<Long, Long> newestBySegment = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService syncer;
+    private int lastId;
+
+    public MessageLog(Path directory, ConnectionPool pool) throws IOException, SQLException {
+        this(directory, pool, DatabaseConfig.MESSAGE_LOG_SEGMENT_BYTES, DatabaseConfig.MESSAGE_LOG_INDEX_INTERVAL,
+                TimeUnit.DAYS.toSeconds(DatabaseConfig.MESSAGE_LOG_RETENTION_DAYS), DatabaseConfig.MESSAGE_LOG_MAX_BYTES);
+    }
+
+    public MessageLog(Path directory, ConnectionPool pool, int segmentBytes, int indexInterval)
+            throws IOException, SQLException {
+        this(directory, pool, segmentBytes, indexInterval, 0, 0);
+    }
+
+    /** A retention or size limit of 0 keeps every segment. */
+    public MessageLog(Path directory, ConnectionPool pool, int segmentBytes, int indexInterval,
+                      long retentionSeconds, long maxBytes) throws IOException, SQLException {
+        this.pool = pool;
+        this.indexInterval = Math.max(1, indexInterval);
+        this.retentionSeconds = retentionSeconds;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+
+        log = new SegmentedLog(directory, SEGMENT_SUFFIX, segmentBytes, BODY_FIXED);
+        recover();
+        if (lastId == 0 && pool != null) {
+            importFromDatabase();
+        }
+
+        syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "message-log-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        syncer.scheduleWithFixedDelay(this::sync, DatabaseConfig.MESSAGE_LOG_SYNC_INTERVAL_MS,
+                DatabaseConfig.MESSAGE_LOG_SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void saveAll(List<Message> messages) throws IOException {
+        lock.writeLock().lock();
+        try {
+            for (Message message : messages) {
+                if (message.getTimestamp() == null) {
+                    message.setTimestamp(LocalDateTime.now());
+                }
+                message.setId(lastId + 1);
+                append(message);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        recordConversations(messages);
+    }
+
+    // The log is the source of truth; a stale inbox is better than storing the messages twice on retry
+    private void recordConversations(List<Message> messages) {
+        if (pool == null) {
+            return;
+        }
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            ConversationIndex.recordMessages(conn, messages);
+            conn.commit();
+        } catch (SQLException e) {
+            System.err.println("Conversation index not updated for " + messages.size() + " messages: "
+                    + e.getMessage());
+        }
+    }
+
+    @Override
+    public List<Message> getChatHistory(String user1, String user2) throws IOException {
+        lock.readLock().lock();
+        try {
+            Chain chain = chains.get(chainKey(user1, user2));
+            List<Message> messages = new ArrayList<>();
+            for (long position = chain != null ? chain.head : NO_POSITION; position != NO_POSITION; ) {
+                Record record = read(position);
+                if (record == null) {
+                    break;
+                }
+                messages.add(record.message);
+                position = record.previous;
+            }
+            Collections.reverse(messages);
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getChatHistoryBefore(String user1, String user2, int beforeId, int limit) throws IOException {
+        lock.readLock().lock();
+        try {
+            Chain chain = chains.get(chainKey(user1, user2));
+            List<Message> messages = new ArrayList<>();
+            if (chain == null) {
+                return messages;
+            }
+            long position = chain.head;
+            if (beforeId > 0) {
+                // The first indexed record at or past the cursor is at most one interval above the page
+                int k = chain.firstIndexedAbove(beforeId - 1);
+                if (k < chain.indexed) {
+                    position = chain.positions[k];
+                }
+            }
+            while (position != NO_POSITION && messages.size() < limit) {
+                Record record = read(position);
+                if (record == null) {
+                    break;
+                }
+                if (beforeId <= 0 || record.message.getId() < beforeId) {
+                    messages.add(record.message);
+                }
+                position = record.previous;
+            }
+            Collections.reverse(messages);
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getChatHistoryAfter(String user1, String user2, int afterId, int limit) throws IOException {
+        lock.readLock().lock();
+        try {
+            Chain chain = chains.get(chainKey(user1, user2));
+            List<Message> messages = new ArrayList<>();
+            if (chain == null) {
+                return messages;
+            }
+            // The page starts within the interval before indexed record k; start walking far enough past its end
+            int k = chain.firstIndexedAbove(afterId);
+            int end = k + (limit + indexInterval - 1) / indexInterval;
+            long position = end < chain.indexed ? chain.positions[end] : chain.head;
+            while (position != NO_POSITION) {
+                Record record = read(position);
+                if (record == null || record.message.getId() <= afterId) {
+                    break;
+                }
+                messages.add(record.message);
+                position = record.previous;
+            }
+            Collections.reverse(messages);
+            return messages.size() > limit ? new ArrayList<>(messages.subList(0, limit)) : messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getAllUserMessages(String username) throws IOException {
+        lock.readLock().lock();
+        try {
+            List<Message> messages = new ArrayList<>();
+            for (String key : chainsByUser.getOrDefault(username, Collections.emptySet())) {
+                for (long position = chains.get(key).head; position != NO_POSITION; ) {
+                    Record record = read(position);
+                    if (record == null) {
+                        break;
+                    }
+                    messages.add(record.message);
+                    position = record.previous;
+                }
+            }
+            messages.sort(Comparator.comparingInt(Message::getId).reversed());
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesAfter(int afterId, int limit) throws IOException {
+        lock.readLock().lock();
+        try {
+            List<Message> messages = new ArrayList<>();
+            // Records are in id order, so scan forward from the last indexed record at or below the cursor;
+            // records of a partly retired interval come before the first indexed one
+            int k = all.firstIndexedAbove(afterId);
+            long position = k > 0 ? all.positions[k - 1] : log.first();
+            while (position != NO_POSITION && messages.size() < limit) {
+                Record record = read(position);
+                if (record != null && record.message.getId() > afterId) {
+                    messages.add(record.message);
+                }
+                position = log.next(position);
+            }
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        syncer.shutdown();
+        lock.writeLock().lock();
+        try {
+            log.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void append(Message message) throws IOException {
+        String key = chainKey(message.getSenderUsername(), message.getReceiverUsername());
+        Chain chain = chains.get(key);
+        byte[] sender = utf8(message.getSenderUsername());
+        byte[] receiver = utf8(message.getReceiverUsername());
+        byte[] text = utf8(message.getMessage());
+        if (sender.length > 0xFFFF || receiver.length > 0xFFFF) {
+            throw new IOException("Username too long");
+        }
+        int bodyLength = BODY_FIXED + sender.length + receiver.length + text.length;
+        if (!log.canHold(bodyLength)) {
+            throw new IOException("Message too large for the message log");
+        }
+        if (!log.fits(bodyLength)) {
+            log.roll();
+        }
+
+        LocalDateTime timestamp = message.getTimestamp();
+        ByteBuffer body = ByteBuffer.allocate(bodyLength);
+        body.putInt(message.getId());
+        body.putLong(timestamp.toEpochSecond(ZoneOffset.UTC)).putInt(timestamp.getNano());
+        body.putLong(chain != null ? chain.head : NO_POSITION);
+        body.putShort((short) sender.length).put(sender);
+        body.putShort((short) receiver.length).put(receiver);
+        body.putInt(text.length).put(text);
+        body.flip();
+        index(message, log.append(body));
+    }
+
+    private void index(Message message, long position) {
+        String sender = message.getSenderUsername();
+        String receiver = message.getReceiverUsername();
+        String key = chainKey(sender, receiver);
+        Chain chain = chains.get(key);
+        if (chain == null) {
+            chain = new Chain();
+            chains.put(key, chain);
+            chainsByUser.computeIfAbsent(sender, u -> new HashSet<>()).add(key);
+            chainsByUser.computeIfAbsent(receiver, u -> new HashSet<>()).add(key);
+        }
+        chain.add(message.getId(), position, indexInterval);
+        all.add(message.getId(), position, indexInterval);
+        lastId = Math.max(lastId, message.getId());
+        newestBySegment.merge(SegmentedLog.segmentOf(position),
+                message.getTimestamp().toEpochSecond(ZoneOffset.UTC), Math::max);
+    }
+
+    // Retention runs under the write lock, so no reader is inside a segment it retires; forcing does not
+    private void sync() {
+        if (retentionSeconds > 0 || maxBytes > 0) {
+            lock.writeLock().lock();
+            try {
+                applyRetention();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        log.sync();
+    }
+
+    private void applyRetention() {
+        long cutoff = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) - retentionSeconds;
+        // The segment holding the newest message stays, so the next id survives a restart
+        long newest = all.head != NO_POSITION ? SegmentedLog.segmentOf(all.head) : -1;
+        int retired = 0;
+        while (log.segmentCount() > 0 && log.oldestSegment() < newest) {
+            long oldest = log.oldestSegment();
+            boolean expired = retentionSeconds > 0 && newestBySegment.getOrDefault(oldest, Long.MIN_VALUE) < cutoff;
+            boolean oversized = maxBytes > 0 && (long) log.segmentCount() * segmentBytes > maxBytes;
+            if (!expired && !oversized) {
+                break;
+            }
+            newestBySegment.remove(oldest);
+            log.retireOldest();
+            retired++;
+        }
+        if (retired > 0) {
+            long first = log.first();
+            long oldestKept = first != NO_POSITION ? SegmentedLog.segmentOf(first) : newest;
+            Iterator<Map.Entry<String, Chain>> it = chains.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Chain> entry = it.next();
+                if (!entry.getValue().dropBefore(oldestKept)) {
+                    it.remove();
+                    forgetChain(entry.getKey());
+                }
+            }
+            all.dropBefore(oldestKept);
+            System.out.println("Message log: retired " + retired + " old segments");
+        }
+    }
+
+    private void forgetChain(String key) {
+        for (String username : key.split("\0")) {
+            Set<String> keys = chainsByUser.get(username);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                chainsByUser.remove(username);
+            }
+        }
+    }
+
+    private void recover() {
+        log.replay((position, body) -> index(decode(body).message, position));
+        if (lastId > 0) {
+            System.out.println("Message log: " + lastId + " messages in " + chains.size() + " conversations");
+        }
+    }
+
+    private void importFromDatabase() throws IOException, SQLException {
+        int imported = 0;
+        try (Connection conn = pool.getConnection()) {
+            PreparedStatement stmt = conn.prepareStatement("SELECT * FROM messages ORDER BY id");
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    append(JdbcMessageRepository.mapMessage(rs));
+                    imported++;
+                }
+            }
+        }
+        if (imported > 0) {
+            log.sync();
+            System.out.println("Message log: imported " + imported + " messages from the database");
+        }
+    }
+
+    // Null if the record was lost in a crash
+    private Record read(long position) throws IOException {
+        ByteBuffer body = log.read(position);
+        return body != null ? decode(body) : null;
+    }
+
+    private static Record decode(ByteBuffer body) {
+        Message message = new Message();
+        message.setId(body.getInt());
+        long epochSecond = body.getLong();
+        int nanos = body.getInt();
+        message.setTimestamp(LocalDateTime.ofEpochSecond(epochSecond, nanos, ZoneOffset.UTC));
+        long previous = body.getLong();
+        message.setSenderUsername(readString(body, body.getShort() & 0xFFFF));
+        message.setReceiverUsername(readString(body, body.getShort() & 0xFFFF));
+        message.setMessage(readString(body, body.getInt()));
+        return new Record(message, previous);
+    }
+
+    private static String readString(ByteBuffer body, int length) {
+        ByteBuffer bytes = body.duplicate();
+        bytes.limit(bytes.position() + length);
+        body.position(body.position() + length);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    private static String chainKey(String user1, String user2) {
+        return user1.compareTo(user2) <= 0 ? user1 + '\0' + user2 : user2 + '\0' + user1;
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Newest record of a conversation plus every indexInterval-th one, oldest first. */
+    private static final class Chain {
+        long head = NO_POSITION;
+        int count;
+        int indexed;
+        int[] ids = new int[4];
+        long[] positions = new long[4];
+
+        void add(int id, long position, int interval) {
+            if (count % interval == 0) {
+                if (indexed == ids.length) {
+                    ids = Arrays.copyOf(ids, indexed * 2);
+                    positions = Arrays.copyOf(positions, indexed * 2);
+                }
+                ids[indexed] = id;
+                positions[indexed] = position;
+                indexed++;
+            }
+            head = position;
+            count++;
+        }
+
+        // Forgets the indexed records in segments before the given one; false if the chain has none left
+        boolean dropBefore(long segment) {
+            if (head == NO_POSITION || SegmentedLog.segmentOf(head) < segment) {
+                head = NO_POSITION;
+                indexed = 0;
+                return false;
+            }
+            int kept = 0;
+            while (kept < indexed && SegmentedLog.segmentOf(positions[kept]) < segment) {
+                kept++;
+            }
+            System.arraycopy(ids, kept, ids, 0, indexed - kept);
+            System.arraycopy(positions, kept, positions, 0, indexed - kept);
+            indexed -= kept;
+            return true;
+        }
+
+        // Index of the first indexed record with an id above the given one, or indexed if none
+        int firstIndexedAbove(int id) {
+            int low = 0;
+            int high = indexed;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ids[mid] > id) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+    }
+
+    private static final class Record {
+        final Message message;
+        final long previous;
+
+        Record(Message message, long previous) {
+            this.message = message;
+            this.previous = previous;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package db;
+
+import models.Message;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Where chat messages live. History pages are ascending by id; ids are
+ * assigned by saveAll and increase with time.
+ */
+public interface MessageRepository {
+    /** Stores the messages in order, sets their ids and updates the conversation index. */
+    void saveAll(List<Message> messages) throws SQLException, IOException;
+
+    List<Message> getChatHistory(String user1, String user2) throws SQLException, IOException;
+
+    // Newest messages with id below beforeId (any id if beforeId <= 0)
+    List<Message> getChatHistoryBefore(String user1, String user2, int beforeId, int limit)
+            throws SQLException, IOException;
+
+    List<Message> getChatHistoryAfter(String user1, String user2, int afterId, int limit)
+            throws SQLException, IOException;
+
+    // Newest first
+    List<Message> getAllUserMessages(String username) throws SQLException, IOException;
+
+    // Every message with id above afterId, ascending; for building derived indexes
+    List<Message> getMessagesAfter(int afterId, int limit) throws SQLException, IOException;
+
+    void close();
+}
@@ -0,0 +1,101 @@
+package db;
+
+import config.DatabaseConfig;
+import models.Message;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Rough comparison of the message engines. Writes messages in batches the
+ * way the chat server's write-behind queue does, then reads random history
+ * pages, full conversations and full user histories.
+ *
+ * Engines: "jdbc" (messages table), "log" (message log plus the conversation
+ * index in the database, as deployed) and "log-only" (message log without a
+ * database). The database engines write real rows for users named bench-*.
+ *
+ * Usage: java db.MessageRepositoryBenchmark [engines] [messages] [conversations] [batchSize]
+ * e.g.   java db.MessageRepositoryBenchmark jdbc,log,log-only 100000 100 500
+ */
+public class MessageRepositoryBenchmark {
+    private static final int PAGE_READS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        String[] engines = (args.length > 0 ? args[0] : "jdbc,log,log-only").split(",");
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int conversations = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int batchSize = args.length > 3 ? Integer.parseInt(args[3]) : DatabaseConfig.CHAT_PERSIST_BATCH_SIZE;
+
+        System.out.printf("%-9s %10s %10s %10s %12s %12s%n",
+                "engine", "writes/s", "page p50", "page p99", "history ms", "user ms");
+        for (String engine : engines) {
+            run(engine, count, conversations, batchSize);
+        }
+    }
+
+    private static void run(String engine, int count, int conversations, int batchSize) throws Exception {
+        ConnectionPool pool = "log-only".equals(engine) ? null : new ConnectionPool();
+        if (pool != null) {
+            try (Connection conn = pool.getConnection()) {
+                ConversationIndex.ensureTable(conn);
+            }
+        }
+        Path directory = Files.createTempDirectory("message-log-bench");
+        MessageRepository repository = "jdbc".equals(engine)
+                ? new JdbcMessageRepository(pool)
+                : new MessageLog(directory, pool);
+        String run = Long.toString(System.currentTimeMillis(), 36);
+        Random random = new Random(42);
+        try {
+            long start = System.nanoTime();
+            for (int written = 0; written < count; ) {
+                List<Message> batch = new ArrayList<>(batchSize);
+                for (; batch.size() < batchSize && written < count; written++) {
+                    int conversation = random.nextInt(conversations);
+                    boolean forward = random.nextBoolean();
+                    String a = "bench-" + run + "-" + conversation + "a";
+                    String b = "bench-" + run + "-" + conversation + "b";
+                    batch.add(new Message(forward ? a : b, forward ? b : a, "benchmark message " + written));
+                }
+                repository.saveAll(batch);
+            }
+            double writesPerSecond = count / ((System.nanoTime() - start) / 1e9);
+
+            long[] pageMicros = new long[PAGE_READS];
+            for (int i = 0; i < PAGE_READS; i++) {
+                int conversation = random.nextInt(conversations);
+                long t = System.nanoTime();
+                repository.getChatHistoryBefore("bench-" + run + "-" + conversation + "a",
+                        "bench-" + run + "-" + conversation + "b", random.nextInt(count) + 1,
+                        DatabaseConfig.CHAT_HISTORY_PAGE_SIZE);
+                pageMicros[i] = (System.nanoTime() - t) / 1000;
+            }
+            Arrays.sort(pageMicros);
+
+            long t = System.nanoTime();
+            repository.getChatHistory("bench-" + run + "-0a", "bench-" + run + "-0b");
+            double historyMillis = (System.nanoTime() - t) / 1e6;
+            t = System.nanoTime();
+            repository.getAllUserMessages("bench-" + run + "-0a");
+            double userMillis = (System.nanoTime() - t) / 1e6;
+
+            System.out.printf("%-9s %10.0f %8d us %8d us %12.1f %12.1f%n", engine, writesPerSecond,
+                    pageMicros[PAGE_READS / 2], pageMicros[PAGE_READS * 99 / 100], historyMillis, userMillis);
+        } finally {
+            repository.close();
+            if (pool != null) {
+                pool.close();
+            }
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+}
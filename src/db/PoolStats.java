@@ -0,0 +1,71 @@
+package db;
+
+import java.io.Serializable;
+
+public class PoolStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int totalConnections;
+    private final int activeConnections;
+    private final int idleConnections;
+    private final int waitingThreads;
+    private final int maxSize;
+    private final long borrowCount;
+    private final long timeoutCount;
+    private final long createdCount;
+    private final long evictedCount;
+    private final long averageWaitMicros;
+    private final long maxWaitMicros;
+    private final long statementCacheHits;
+    private final long statementCacheMisses;
+
+    public PoolStats(int totalConnections, int activeConnections, int idleConnections, int waitingThreads,
+                     int maxSize, long borrowCount, long timeoutCount, long createdCount, long evictedCount,
+                     long averageWaitMicros, long maxWaitMicros, long statementCacheHits, long statementCacheMisses) {
+        this.totalConnections = totalConnections;
+        this.activeConnections = activeConnections;
+        this.idleConnections = idleConnections;
+        this.waitingThreads = waitingThreads;
+        this.maxSize = maxSize;
+        this.borrowCount = borrowCount;
+        this.timeoutCount = timeoutCount;
+        this.createdCount = createdCount;
+        this.evictedCount = evictedCount;
+        this.averageWaitMicros = averageWaitMicros;
+        this.maxWaitMicros = maxWaitMicros;
+        this.statementCacheHits = statementCacheHits;
+        this.statementCacheMisses = statementCacheMisses;
+    }
+
+    // Getters
+    public int getTotalConnections() { return totalConnections; }
+    public int getActiveConnections() { return activeConnections; }
+    public int getIdleConnections() { return idleConnections; }
+    public int getWaitingThreads() { return waitingThreads; }
+    public int getMaxSize() { return maxSize; }
+    public long getBorrowCount() { return borrowCount; }
+    public long getTimeoutCount() { return timeoutCount; }
+    public long getCreatedCount() { return createdCount; }
+    public long getEvictedCount() { return evictedCount; }
+    public long getAverageWaitMicros() { return averageWaitMicros; }
+    public long getMaxWaitMicros() { return maxWaitMicros; }
+    public long getStatementCacheHits() { return statementCacheHits; }
+    public long getStatementCacheMisses() { return statementCacheMisses; }
+
+    @Override
+    public String toString() {
+        return "PoolStats{total=" + totalConnections +
+                ", active=" + activeConnections +
+                ", idle=" + idleConnections +
+                ", waiting=" + waitingThreads +
+                ", max=" + maxSize +
+                ", borrows=" + borrowCount +
+                ", timeouts=" + timeoutCount +
+                ", created=" + createdCount +
+                ", evicted=" + evictedCount +
+                ", avgWaitUs=" + averageWaitMicros +
+                ", maxWaitUs=" + maxWaitMicros +
+                ", stmtHits=" + statementCacheHits +
+                ", stmtMisses=" + statementCacheMisses + "}";
+    }
+}
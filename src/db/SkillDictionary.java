@@ -0,0 +1,234 @@
+package db;
+
+import config.DatabaseConfig;
+import models.SkillCatalog;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The skills table in memory: name to id and back, plus the sorted name
+ * list getAllSkills serves. Every name is held once, and profiles loaded
+ * through nameOf share those instances instead of holding their own copies.
+ *
+ * Readers use an immutable snapshot published through a volatile field and
+ * never lock or query. Writers are serialized and publish a new snapshot
+ * with a new version, so clients that remember the version can tell when
+ * their copy of the list is still current. Creating a skill takes the
+ * writer lock, so concurrent requests for the same new name in this process
+ * resolve to one id; INSERT IGNORE against the unique name covers other
+ * processes.
+ */
+public final class SkillDictionary {
+    private static final class Snapshot {
+        final long version;
+        final Map<String, Integer> idsByKey;
+        final Map<Integer, String> namesById;
+        final List<String> sortedNames;
+
+        Snapshot(long version, Map<String, Integer> idsByKey, Map<Integer, String> namesById) {
+            this.version = version;
+            this.idsByKey = idsByKey;
+            this.namesById = namesById;
+            List<String> names = new ArrayList<>(namesById.values());
+            names.sort(String.CASE_INSENSITIVE_ORDER);
+            this.sortedNames = Collections.unmodifiableList(names);
+        }
+    }
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile Snapshot snapshot;
+
+    /** Reads the whole skills table; versions start from the load time so they never repeat across restarts. */
+    public void load(Connection conn) throws SQLException {
+        writeLock.lock();
+        try {
+            Map<String, Integer> idsByKey = new HashMap<>();
+            Map<Integer, String> namesById = new HashMap<>();
+            PreparedStatement stmt = conn.prepareStatement("SELECT id, skill_name FROM skills");
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                String name = rs.getString("skill_name");
+                idsByKey.put(key(name), rs.getInt("id"));
+                namesById.put(rs.getInt("id"), name);
+            }
+            rs.close();
+            snapshot = new Snapshot(System.currentTimeMillis() << 16, idsByKey, namesById);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public SkillCatalog catalog() {
+        Snapshot current = snapshot;
+        return new SkillCatalog(current.version, current.sortedNames);
+    }
+
+    // Shared and unmodifiable
+    public List<String> sortedNames() {
+        return snapshot.sortedNames;
+    }
+
+    /** The stored name for a skill id, looking it up if another process created the skill. */
+    public String nameOf(int skillId, Connection conn) throws SQLException {
+        String name = snapshot.namesById.get(skillId);
+        if (name != null) {
+            return name;
+        }
+        writeLock.lock();
+        try {
+            name = snapshot.namesById.get(skillId);
+            if (name == null) {
+                PreparedStatement stmt = conn.prepareStatement("SELECT skill_name FROM skills WHERE id = ?");
+                stmt.setInt(1, skillId);
+                ResultSet rs = stmt.executeQuery();
+                if (rs.next()) {
+                    name = rs.getString("skill_name");
+                    publish(Collections.singletonMap(skillId, name));
+                }
+                rs.close();
+            }
+            return name;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** Creates the skill unless it exists; true if this call created it. */
+    public boolean add(String name, Connection conn) throws SQLException {
+        String key = key(name);
+        if (key.isEmpty() || snapshot.idsByKey.containsKey(key)) {
+            return false;
+        }
+        writeLock.lock();
+        try {
+            if (snapshot.idsByKey.containsKey(key)) {
+                return false;
+            }
+            PreparedStatement stmt = conn.prepareStatement("INSERT IGNORE INTO skills (skill_name) VALUES (?)");
+            stmt.setString(1, name.trim());
+            boolean created = stmt.executeUpdate() > 0;
+            publish(select(Collections.singletonList(name.trim()), conn));
+            return created;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Ids for the given names keyed by key(), creating the skills that do not
+     * exist yet. Known names cost nothing; the unknown ones one batched
+     * INSERT IGNORE and one SELECT.
+     */
+    public Map<String, Integer> resolve(Collection<String> names, Connection conn) throws SQLException {
+        Map<String, Integer> ids = new HashMap<>();
+        Map<String, String> missing = new LinkedHashMap<>();
+        Snapshot current = snapshot;
+        for (String name : names) {
+            String key = key(name);
+            Integer id = current.idsByKey.get(key);
+            if (id != null) {
+                ids.put(key, id);
+            } else if (!key.isEmpty()) {
+                missing.putIfAbsent(key, name.trim());
+            }
+        }
+        if (missing.isEmpty()) {
+            return ids;
+        }
+
+        writeLock.lock();
+        try {
+            // Another writer may have created some of them meanwhile
+            List<String> toCreate = new ArrayList<>();
+            for (Map.Entry<String, String> entry : missing.entrySet()) {
+                Integer id = snapshot.idsByKey.get(entry.getKey());
+                if (id != null) {
+                    ids.put(entry.getKey(), id);
+                } else {
+                    toCreate.add(entry.getValue());
+                }
+            }
+            if (!toCreate.isEmpty()) {
+                insert(toCreate, conn);
+                Map<Integer, String> created = select(toCreate, conn);
+                publish(created);
+                for (Map.Entry<Integer, String> entry : created.entrySet()) {
+                    ids.put(key(entry.getValue()), entry.getKey());
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        for (String key : missing.keySet()) {
+            if (!ids.containsKey(key)) {
+                throw new SQLException("Failed to create skill: " + missing.get(key));
+            }
+        }
+        return ids;
+    }
+
+    // Skill names compare case-insensitively and ignore surrounding spaces, like the skills table
+    public static String key(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static void insert(List<String> names, Connection conn) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement("INSERT IGNORE INTO skills (skill_name) VALUES (?)");
+        for (String name : names) {
+            stmt.setString(1, name);
+            stmt.addBatch();
+        }
+        stmt.executeBatch();
+    }
+
+    private static Map<Integer, String> select(List<String> names, Connection conn) throws SQLException {
+        Map<Integer, String> found = new HashMap<>();
+        for (int from = 0; from < names.size(); from += DatabaseConfig.SKILL_BATCH_SIZE) {
+            List<String> chunk = names.subList(from, Math.min(from + DatabaseConfig.SKILL_BATCH_SIZE, names.size()));
+            // Padded to a power of two so the statement cache only sees a handful of shapes
+            int slots = Integer.highestOneBit(chunk.size());
+            if (slots < chunk.size()) slots <<= 1;
+            StringBuilder placeholders = new StringBuilder();
+            for (int i = 0; i < slots; i++) {
+                placeholders.append(i > 0 ? ",?" : "?");
+            }
+            PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT id, skill_name FROM skills WHERE skill_name IN (" + placeholders + ")");
+            for (int i = 0; i < slots; i++) {
+                stmt.setString(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+            }
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                found.put(rs.getInt("id"), rs.getString("skill_name"));
+            }
+            rs.close();
+        }
+        return found;
+    }
+
+    // Caller holds writeLock
+    private void publish(Map<Integer, String> added) {
+        if (added.isEmpty()) {
+            return;
+        }
+        Snapshot current = snapshot;
+        Map<String, Integer> idsByKey = new HashMap<>(current.idsByKey);
+        Map<Integer, String> namesById = new HashMap<>(current.namesById);
+        for (Map.Entry<Integer, String> entry : added.entrySet()) {
+            idsByKey.put(key(entry.getValue()), entry.getKey());
+            namesById.put(entry.getKey(), entry.getValue());
+        }
+        snapshot = new Snapshot(current.version + 1, idsByKey, namesById);
+    }
+}
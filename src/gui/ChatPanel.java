@@ -2,31 +2,56 @@ package gui;
 
 import models.User;
 import models.Message;
+import models.Conversation;
+import rmi.AsyncSkillSwapService;
 import rmi.SkillSwapService;
 import chat.ChatClient;
+import chat.ChatHistoryCache;
+import config.DatabaseConfig;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.rmi.RemoteException;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.Arrays;
 import java.util.HashSet;
-import java.time.*;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class ChatPanel extends JPanel implements ChatClient.ChatMessageListener {
     private User currentUser;
-    private SkillSwapService service;
+    private AsyncSkillSwapService service;
+    // Set when this panel created the facade, so its threads end with the panel
+    private boolean ownsService;
     private ChatClient chatClient;
+    private ChatHistoryCache historyCache;
     private JList<String> chatList;
     private DefaultListModel<String> chatListModel;
-    private JTextArea chatArea;
+    private JList<MessageListModel.Row> messageList;
+    private MessageListModel messageModel;
+    private JScrollPane chatScroll;
+    private Timer rewrapTimer;
     private JTextField messageField;
     private JButton sendButton;
     private String currentChatUser;
     private Set<String> chatUsers;
+    private Map<String, Integer> unreadCounts = new HashMap<>();
+    // Chat partners the server reported online
+    private Set<String> onlineUsers = new HashSet<>();
+
+    // Keyset cursor for scrolling back through history
+    private int oldestMessageId;
+    private boolean hasOlderMessages;
+    private boolean loadingOlderMessages;
+    // Bumped whenever a chat is (re)opened, so late replies for an earlier one are ignored
+    private int historyGeneration;
+    // Live messages for the open chat that arrived while its history was loading; null once loaded
+    private List<Message> liveDuringLoad;
 
     // Enhanced Colors
     private final Color BACKGROUND_COLOR = new Color(240, 242, 245);
@@ -38,10 +63,16 @@ public class ChatPanel extends JPanel implements ChatClient.ChatMessageListener
     private final Color BORDER_COLOR = new Color(222, 226, 230);
 
     public ChatPanel(User currentUser, SkillSwapService service, ChatClient chatClient) {
+        this(currentUser, new AsyncSkillSwapService(service), chatClient);
+        this.ownsService = true;
+    }
+
+    public ChatPanel(User currentUser, AsyncSkillSwapService service, ChatClient chatClient) {
         this.currentUser = currentUser;
         this.service = service;
         this.chatClient = chatClient;
         this.chatUsers = new HashSet<>();
+        this.historyCache = new ChatHistoryCache(currentUser.getUsername());
 
         if (chatClient != null) {
             chatClient.setMessageListener(this);
@@ -90,6 +121,12 @@ public class ChatPanel extends JPanel implements ChatClient.ChatMessageListener
                                                           boolean isSelected, boolean cellHasFocus) {
                 super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
                 setBorder(BorderFactory.createEmptyBorder(0, 20, 0, 20));
+                String text = onlineUsers.contains(value) ? "\u25CF " + value : value.toString();
+                int unread = unreadCounts.getOrDefault(value, 0);
+                if (unread > 0 && !value.equals(currentChatUser)) {
+                    text += " (" + unread + ")";
+                }
+                setText(text);
                 if (isSelected) {
                     setBackground(LIST_SELECTION_COLOR);
                     setForeground(new Color(0, 0, 0));
@@ -165,19 +202,50 @@ public class ChatPanel extends JPanel implements ChatClient.ChatMessageListener
         chatHeader.add(chatTitle, BorderLayout.WEST);
         rightPanel.add(chatHeader, BorderLayout.NORTH);
 
-        // Chat display area
-        chatArea = new JTextArea();
-        chatArea.setEditable(false);
-        chatArea.setFont(new Font("Segoe UI", Font.PLAIN, 15));
-        chatArea.setLineWrap(true);
-        chatArea.setWrapStyleWord(true);
-        chatArea.setBackground(Color.WHITE);
-        chatArea.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
-        chatArea.setMargin(new Insets(0, 0, 0, 0));
-
-        JScrollPane chatScroll = new JScrollPane(chatArea);
+        // Chat display area: fixed-height rows, so only the visible ones are laid out
+        messageModel = new MessageListModel(currentUser.getUsername());
+        messageList = new JList<>(messageModel);
+        messageList.setFont(new Font("Segoe UI", Font.PLAIN, 15));
+        messageList.setBackground(Color.WHITE);
+        messageList.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
+        messageList.setFocusable(false);
+        messageList.setFixedCellHeight(messageList.getFontMetrics(messageList.getFont()).getHeight() + 2);
+        Font noticeFont = new Font("Segoe UI", Font.ITALIC, 14);
+        messageList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                MessageListModel.Row row = (MessageListModel.Row) value;
+                super.getListCellRendererComponent(list, row.getText(), index, false, false);
+                setBorder(BorderFactory.createEmptyBorder());
+                setBackground(Color.WHITE);
+                if (row.isNotice()) {
+                    setFont(noticeFont);
+                    setForeground(new Color(150, 150, 150));
+                } else {
+                    setForeground(Color.BLACK);
+                }
+                return this;
+            }
+        });
+
+        chatScroll = new JScrollPane(messageList);
         chatScroll.setBorder(BorderFactory.createEmptyBorder());
         chatScroll.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
+        chatScroll.getVerticalScrollBar().addAdjustmentListener(e -> {
+            // Fetch the previous page once the user scrolls to the top
+            if (!e.getValueIsAdjusting() && e.getValue() == 0 && hasOlderMessages) {
+                SwingUtilities.invokeLater(this::loadOlderMessages);
+            }
+        });
+        // Rewrap once resizing settles rather than on every intermediate width
+        rewrapTimer = new Timer(150, e -> updateMessageWrapping());
+        rewrapTimer.setRepeats(false);
+        chatScroll.getViewport().addComponentListener(new java.awt.event.ComponentAdapter() {
+            public void componentResized(java.awt.event.ComponentEvent evt) {
+                rewrapTimer.restart();
+            }
+        });
         rightPanel.add(chatScroll, BorderLayout.CENTER);
 
         // Message input panel (more visible send button)
@@ -234,83 +302,85 @@ public class ChatPanel extends JPanel implements ChatClient.ChatMessageListener
         add(splitPane, BorderLayout.CENTER);
     }
 
-    // [Rest of the methods remain exactly the same as your original implementation]
     private void loadChatUsers() {
-        try {
-            chatListModel.clear();
-            chatUsers.clear();
-
-            Set<String> uniqueChatPartners = new HashSet<>();
-            List<Message> allMessages = service.getAllUserMessages(currentUser.getUsername());
-            for (Message msg : allMessages) {
-                String otherUser = msg.getSenderUsername().equals(currentUser.getUsername())
-                        ? msg.getReceiverUsername()
-                        : msg.getSenderUsername();
-
-                if (!otherUser.equals(currentUser.getUsername())) {
-                    uniqueChatPartners.add(otherUser);
-                }
-            }
+        service.getConversations(currentUser.getUsername(), DatabaseConfig.CONVERSATION_MAX_PAGE_SIZE)
+                .whenComplete((conversations, error) -> {
+                    if (error != null) {
+                        JOptionPane.showMessageDialog(this,
+                                "Error loading chat users: " + errorMessage(error),
+                                "Error",
+                                JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
 
-            for (String username : uniqueChatPartners) {
-                chatUsers.add(username);
-                chatListModel.addElement(username);
-            }
+                    // Already one entry per partner, most recent first. Chats opened while
+                    // this was loading stay at the end of the list.
+                    List<String> opened = new ArrayList<>();
+                    for (int i = 0; i < chatListModel.size(); i++) {
+                        opened.add(chatListModel.get(i));
+                    }
+                    chatListModel.clear();
+                    chatUsers.clear();
+                    for (Conversation conversation : conversations) {
+                        String username = conversation.getPartnerUsername();
+                        if (!username.equals(currentUser.getUsername())) {
+                            chatUsers.add(username);
+                            chatListModel.addElement(username);
+                            unreadCounts.put(username, conversation.getUnreadCount());
+                        }
+                    }
+                    for (String username : opened) {
+                        if (chatUsers.add(username)) {
+                            chatListModel.addElement(username);
+                        }
+                    }
+                    if (currentChatUser != null) {
+                        chatList.setSelectedValue(currentChatUser, false);
+                    }
+                    watchChatUsers();
+                });
+    }
 
-        } catch (RemoteException e) {
-            JOptionPane.showMessageDialog(this,
-                    "Error loading chat users: " + e.getMessage(),
-                    "Error",
-                    JOptionPane.ERROR_MESSAGE);
-        }
+    static String errorMessage(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause.getMessage();
     }
 
     public void openChatWith(String username) {
         if (!chatUsers.contains(username)) {
             chatUsers.add(username);
             chatListModel.addElement(username);
+            watchChatUsers();
         }
 
+        // Messages that arrived while the previous chat was open are read by now
+        if (currentChatUser != null && !currentChatUser.equals(username)) {
+            markRead(currentChatUser);
+        }
         currentChatUser = username;
         chatList.setSelectedValue(username, true);
         enableChatArea(true);
         loadChatHistory();
+        markRead(username);
     }
 
-    private void openNewChatDialog() {
-        try {
-            List<User> users = service.getAllUsers(currentUser.getUsername());
-            if (users.isEmpty()) {
-                JOptionPane.showMessageDialog(this,
-                        "No other users found.",
-                        "No Users",
-                        JOptionPane.INFORMATION_MESSAGE);
-                return;
-            }
-
-            String[] usernames = users.stream()
-                    .map(User::getUsername)
-                    .toArray(String[]::new);
-
-            String selectedUser = (String) JOptionPane.showInputDialog(
-                    this,
-                    "Select a user to chat with:",
-                    "New Chat",
-                    JOptionPane.QUESTION_MESSAGE,
-                    null,
-                    usernames,
-                    usernames[0]
-            );
-
-            if (selectedUser != null) {
-                openChatWith(selectedUser);
+    private void markRead(String username) {
+        if (unreadCounts.getOrDefault(username, 0) == 0) {
+            return;
+        }
+        unreadCounts.remove(username);
+        chatList.repaint();
+        service.markConversationRead(currentUser.getUsername(), username).whenComplete((ignored, error) -> {
+            if (error != null) {
+                System.err.println("Error marking conversation read: " + errorMessage(error));
             }
+        });
+    }
 
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(this,
-                    "Error loading users: " + e.getMessage(),
-                    "Error",
-                    JOptionPane.ERROR_MESSAGE);
+    private void openNewChatDialog() {
+        String selected = new UserPickerDialog(this, service, currentUser.getUsername()).pick();
+        if (selected != null) {
+            openChatWith(selected);
         }
     }
 
@@ -318,39 +388,185 @@ public class ChatPanel extends JPanel implements ChatClient.ChatMessageListener
         messageField.setEnabled(enabled);
         sendButton.setEnabled(enabled);
         if (!enabled) {
-            chatArea.setText("Select a chat to start messaging");
-            chatArea.setFont(new Font("Segoe UI", Font.ITALIC, 14));
-            chatArea.setForeground(new Color(150, 150, 150));
-        } else {
-            chatArea.setFont(new Font("Segoe UI", Font.PLAIN, 14));
-            chatArea.setForeground(Color.BLACK);
+            messageModel.showNotice("Select a chat to start messaging");
+        }
+    }
+
+    private void updateMessageWrapping() {
+        Insets insets = messageList.getInsets();
+        int width = chatScroll.getViewport().getWidth() - insets.left - insets.right;
+        if (width <= 0) return;
+
+        boolean atBottom = isScrolledToBottom();
+        // A fixed cell width as well, or JList measures every row to find the widest
+        messageList.setFixedCellWidth(width);
+        messageModel.setWrapping(messageList.getFontMetrics(messageList.getFont()), width);
+        if (atBottom) {
+            scrollToBottom();
+        }
+    }
+
+    private boolean isScrolledToBottom() {
+        JScrollBar scrollBar = chatScroll.getVerticalScrollBar();
+        return scrollBar.getValue() + scrollBar.getVisibleAmount() >= scrollBar.getMaximum();
+    }
+
+    private void scrollToBottom() {
+        int last = messageModel.getSize() - 1;
+        if (last >= 0) {
+            messageList.ensureIndexIsVisible(last);
         }
     }
 
     private void loadChatHistory() {
         if (currentChatUser == null) return;
 
-        try {
-            List<Message> messages = service.getChatHistory(currentUser.getUsername(), currentChatUser);
-            displayMessages(messages);
-        } catch (Exception e) {
-            chatArea.setText("Error loading chat history: " + e.getMessage());
+        String partner = currentChatUser;
+        int generation = ++historyGeneration;
+        loadingOlderMessages = false;
+        liveDuringLoad = new ArrayList<>();
+        List<Message> cached = historyCache.load(partner);
+        if (cached.isEmpty()) {
+            hasOlderMessages = false;
+            messageModel.showNotice("Loading messages...");
+            loadNewestPage(partner, generation);
+            return;
         }
+
+        // Show what is on disk right away, then fetch only what was missed
+        displayMessages(cached);
+        oldestMessageId = cached.get(0).getId();
+        hasOlderMessages = true;
+
+        fetchMessagesSince(partner, cached.get(cached.size() - 1).getId(), new ArrayList<>())
+                .whenComplete((missed, error) -> {
+                    if (generation != historyGeneration) return;
+                    if (error != null) {
+                        // The cached history is still worth showing
+                        System.err.println("Error loading new messages: " + errorMessage(error));
+                        showLiveDuringLoad(Collections.emptyList());
+                        return;
+                    }
+                    if (missed == null) {
+                        // Too far behind to catch up incrementally
+                        loadNewestPage(partner, generation);
+                        return;
+                    }
+                    historyCache.append(partner, missed);
+                    messageModel.append(missed);
+                    scrollToBottom();
+                    showLiveDuringLoad(missed);
+                });
     }
 
-    private void displayMessages(List<Message> messages) {
-        StringBuilder sb = new StringBuilder();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm");
+    private void loadNewestPage(String partner, int generation) {
+        service.getChatHistoryBefore(currentUser.getUsername(), partner, 0, DatabaseConfig.CHAT_HISTORY_PAGE_SIZE)
+                .whenComplete((messages, error) -> {
+                    if (generation != historyGeneration) return;
+                    if (error != null) {
+                        hasOlderMessages = false;
+                        messageModel.showNotice("Error loading chat history: " + errorMessage(error));
+                        showLiveDuringLoad(Collections.emptyList());
+                        return;
+                    }
+                    historyCache.replace(partner, messages);
+                    updateHistoryCursor(messages);
+                    displayMessages(messages);
+                    showLiveDuringLoad(messages);
+                });
+    }
+
+    /**
+     * Shows the live messages held back while the history loaded, except
+     * those the server had already stored when it answered: they are the
+     * newest loaded rows, so only as many rows as were held back are compared.
+     */
+    private void showLiveDuringLoad(List<Message> loaded) {
+        List<Message> live = liveDuringLoad;
+        liveDuringLoad = null;
+        if (live == null || live.isEmpty()) {
+            return;
+        }
+        List<Message> unseen = new ArrayList<>(live);
+        for (int i = Math.max(0, loaded.size() - live.size()); i < loaded.size(); i++) {
+            Message stored = loaded.get(i);
+            for (int j = 0; j < unseen.size(); j++) {
+                Message message = unseen.get(j);
+                if (message.getSenderUsername().equals(stored.getSenderUsername())
+                        && message.getMessage().equals(stored.getMessage())) {
+                    unseen.remove(j);
+                    break;
+                }
+            }
+        }
+        if (!unseen.isEmpty()) {
+            messageModel.append(unseen);
+            scrollToBottom();
+        }
+    }
+
+    private void showLiveMessage(Message message) {
+        if (liveDuringLoad != null) {
+            liveDuringLoad.add(message);
+            return;
+        }
+        messageModel.append(Collections.singletonList(message));
+        scrollToBottom();
+    }
 
-        for (Message message : messages) {
-            String time = message.getTimestamp().format(formatter);
-            String sender = message.getSenderUsername().equals(currentUser.getUsername()) ?
-                    "You" : message.getSenderUsername();
+    // Completes with null if more messages were missed than the cache keeps
+    private CompletableFuture<List<Message>> fetchMessagesSince(String partner, int afterId, List<Message> missed) {
+        return service.getChatHistoryAfter(currentUser.getUsername(), partner, afterId,
+                DatabaseConfig.CHAT_HISTORY_MAX_PAGE_SIZE).thenCompose(page -> {
+            missed.addAll(page);
+            if (page.size() < DatabaseConfig.CHAT_HISTORY_MAX_PAGE_SIZE) {
+                return CompletableFuture.completedFuture(missed);
+            }
+            if (missed.size() > DatabaseConfig.CHAT_CACHE_MAX_MESSAGES) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return fetchMessagesSince(partner, page.get(page.size() - 1).getId(), missed);
+        });
+    }
 
-            sb.append(String.format("[%s] %s: %s\n", time, sender, message.getMessage()));
+    private void loadOlderMessages() {
+        if (currentChatUser == null || !hasOlderMessages || loadingOlderMessages) return;
+
+        loadingOlderMessages = true;
+        int generation = historyGeneration;
+        service.getChatHistoryBefore(currentUser.getUsername(), currentChatUser,
+                oldestMessageId, DatabaseConfig.CHAT_HISTORY_PAGE_SIZE).whenComplete((messages, error) -> {
+            if (generation != historyGeneration) return;
+            loadingOlderMessages = false;
+            if (error != null) {
+                System.err.println("Error loading older messages: " + errorMessage(error));
+                return;
+            }
+            updateHistoryCursor(messages);
+            if (messages.isEmpty()) return;
+
+            JScrollBar scrollBar = chatScroll.getVerticalScrollBar();
+            int oldMaximum = scrollBar.getMaximum();
+            int oldValue = scrollBar.getValue();
+
+            messageModel.prepend(messages);
+
+            // Keep the message the user was looking at in place after prepending
+            SwingUtilities.invokeLater(() ->
+                    scrollBar.setValue(oldValue + scrollBar.getMaximum() - oldMaximum));
+        });
+    }
+
+    private void updateHistoryCursor(List<Message> page) {
+        hasOlderMessages = page.size() >= DatabaseConfig.CHAT_HISTORY_PAGE_SIZE;
+        if (!page.isEmpty()) {
+            oldestMessageId = page.get(0).getId();
         }
+    }
 
-        chatArea.setText(sb.toString());
+    private void displayMessages(List<Message> messages) {
+        messageModel.setMessages(messages);
+        scrollToBottom();
     }
 
     private void sendMessage() {
@@ -361,57 +577,87 @@ public class ChatPanel extends JPanel implements ChatClient.ChatMessageListener
         String messageText = messageField.getText().trim();
         messageField.setText("");
 
-        try {
-            Message message = new Message(currentUser.getUsername(), currentChatUser, messageText);
-            service.saveMessage(message);
+        boolean sent = chatClient != null && chatClient.sendMessage(currentChatUser, messageText);
 
-            if (chatClient != null) {
-                chatClient.sendMessage(currentChatUser, messageText);
-            }
+        // The chat server stores what it routes; save directly only when it cannot
+        if (!sent || !chatClient.isPersistingOnServer()) {
+            saveMessage(currentChatUser, messageText);
+        }
 
-            appendMessageToChat(currentUser.getUsername(), messageText);
+        appendMessageToChat(currentUser.getUsername(), messageText);
+    }
 
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(this,
-                    "Error sending message: " + e.getMessage(),
-                    "Error",
-                    JOptionPane.ERROR_MESSAGE);
-        }
+    private void saveMessage(String receiver, String messageText) {
+        Message message = new Message(currentUser.getUsername(), receiver, messageText);
+        service.saveMessage(message).whenComplete((ignored, error) -> {
+            if (error != null) {
+                JOptionPane.showMessageDialog(this,
+                        "Error sending message: " + errorMessage(error),
+                        "Error",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        });
     }
 
     private void appendMessageToChat(String sender, String message) {
-        String time = LocalTime.now().format(DateTimeFormatter.ofPattern("HH:mm"));
-        String senderName = sender.equals(currentUser.getUsername()) ? "You" : sender;
-        String newMessage = String.format("[%s] %s: %s\n", time, senderName, message);
-
-        if (!chatArea.getText().equalsIgnoreCase(newMessage)) {
-            chatArea.append(newMessage);
-            chatArea.setCaretPosition(chatArea.getDocument().getLength());
-        }
+        showLiveMessage(new Message(sender, currentChatUser, message));
     }
 
+    // ChatClient calls this on the event dispatch thread
     public void onMessageReceived(String sender, String receiver, String message) {
-        SwingUtilities.invokeLater(() -> {
-            if (receiver.equals(currentUser.getUsername()) ||
-                    sender.equals(currentUser.getUsername())) {
-
-                if (receiver.equals(currentUser.getUsername())) {
-                    try {
-                        Message msg = new Message(sender, receiver, message);
-                        service.saveMessage(msg);
-                    } catch (Exception e) {
-                        System.err.println("Error saving received message: " + e.getMessage());
-                    }
-                }
+        String me = currentUser.getUsername();
+        if (!receiver.equals(me) && !sender.equals(me)) {
+            return;
+        }
+        String partner = sender.equals(me) ? receiver : sender;
 
-                if (!chatUsers.contains(sender)) {
-                    chatUsers.add(sender);
-                    chatListModel.addElement(sender);
-                }
+        if (!chatUsers.contains(partner)) {
+            chatUsers.add(partner);
+            chatListModel.addElement(partner);
+            watchChatUsers();
+        }
+        if (receiver.equals(me)) {
+            unreadCounts.merge(partner, 1, Integer::sum);
+            chatList.repaint();
+        }
 
-                appendMessageToChat(sender, message);
+        // Pushed messages carry no id, so the partner's history cache picks them up from the
+        // server when that conversation is next opened; only the open conversation shows them now
+        if (partner.equals(currentChatUser)) {
+            showLiveMessage(new Message(sender, receiver, message));
+        }
+    }
+
+    // The chat server delivered the message but could not store it
+    public void onMessageRejected(String receiver, String message) {
+        saveMessage(receiver, message);
+    }
+
+    public void onPresenceChanged(Map<String, Boolean> changes) {
+        for (Map.Entry<String, Boolean> change : changes.entrySet()) {
+            if (change.getValue()) {
+                onlineUsers.add(change.getKey());
+            } else {
+                onlineUsers.remove(change.getKey());
             }
-        });
+        }
+        chatList.repaint();
+    }
+
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+        // Panels handed a shared facade leave it to its owner
+        if (ownsService) {
+            service.shutdown();
+        }
+    }
+
+    // The server pushes presence for the chat list, so nothing is polled
+    private void watchChatUsers() {
+        if (chatClient != null) {
+            chatClient.watchPresence(chatUsers);
+        }
     }
 
     private class SendMessageActionListener implements ActionListener {
@@ -0,0 +1,195 @@
+package gui;
+
+import models.Message;
+import javax.swing.AbstractListModel;
+import java.awt.FontMetrics;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chat history as a list of display rows, one per wrapped line. Rows are
+ * wrapped once when messages arrive (and again only when the width changes),
+ * so the list can use a fixed row height and Swing lays out and paints just
+ * the rows in view. Appends and prepends fire interval events for the new
+ * rows only.
+ */
+class MessageListModel extends AbstractListModel<MessageListModel.Row> {
+    private static final long serialVersionUID = 1L;
+    private static final int DEFAULT_WRAP_WIDTH = 600;
+
+    static final class Row {
+        private final String text;
+        private final boolean notice;
+
+        Row(String text, boolean notice) {
+            this.text = text;
+            this.notice = notice;
+        }
+
+        String getText() { return text; }
+        boolean isNotice() { return notice; }
+    }
+
+    private final String currentUsername;
+    // Formatted "[HH:mm] Sender: text" per message, kept to rewrap without reformatting
+    private final List<String> formatted = new ArrayList<>();
+    private final List<Row> rows = new ArrayList<>();
+    // One label per minute of the day, built on first use
+    private final String[] timeLabels = new String[24 * 60];
+    private FontMetrics metrics;
+    private int wrapWidth = DEFAULT_WRAP_WIDTH;
+
+    MessageListModel(String currentUsername) {
+        this.currentUsername = currentUsername;
+    }
+
+    @Override
+    public int getSize() {
+        return rows.size();
+    }
+
+    @Override
+    public Row getElementAt(int index) {
+        return rows.get(index);
+    }
+
+    /** Sets the font and width rows wrap to; rewraps everything if either changed. */
+    void setWrapping(FontMetrics metrics, int width) {
+        if (width <= 0 || (metrics == this.metrics && width == wrapWidth)) {
+            return;
+        }
+        this.metrics = metrics;
+        this.wrapWidth = width;
+        if (formatted.isEmpty()) {
+            return;
+        }
+        int oldSize = rows.size();
+        rows.clear();
+        for (String line : formatted) {
+            wrap(line, rows);
+        }
+        fireSizeChange(oldSize);
+    }
+
+    void setMessages(List<Message> messages) {
+        int oldSize = rows.size();
+        formatted.clear();
+        rows.clear();
+        for (Message message : messages) {
+            String line = format(message);
+            formatted.add(line);
+            wrap(line, rows);
+        }
+        fireSizeChange(oldSize);
+    }
+
+    void append(List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        int first = rows.size();
+        for (Message message : messages) {
+            String line = format(message);
+            formatted.add(line);
+            wrap(line, rows);
+        }
+        fireIntervalAdded(this, first, rows.size() - 1);
+    }
+
+    /** Inserts older messages above everything shown; returns the number of rows added. */
+    int prepend(List<Message> messages) {
+        if (messages.isEmpty()) {
+            return 0;
+        }
+        List<String> lines = new ArrayList<>(messages.size());
+        List<Row> added = new ArrayList<>();
+        for (Message message : messages) {
+            String line = format(message);
+            lines.add(line);
+            wrap(line, added);
+        }
+        formatted.addAll(0, lines);
+        rows.addAll(0, added);
+        fireIntervalAdded(this, 0, added.size() - 1);
+        return added.size();
+    }
+
+    /** Replaces the history with a single informational line. */
+    void showNotice(String text) {
+        int oldSize = rows.size();
+        formatted.clear();
+        rows.clear();
+        rows.add(new Row(text, true));
+        fireSizeChange(oldSize);
+    }
+
+    private void fireSizeChange(int oldSize) {
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+        if (!rows.isEmpty()) {
+            fireIntervalAdded(this, 0, rows.size() - 1);
+        }
+    }
+
+    private String format(Message message) {
+        String sender = message.getSenderUsername().equals(currentUsername) ? "You" : message.getSenderUsername();
+        return "[" + timeLabel(message.getTimestamp()) + "] " + sender + ": " + message.getMessage();
+    }
+
+    private String timeLabel(LocalDateTime timestamp) {
+        if (timestamp == null) {
+            timestamp = LocalDateTime.now();
+        }
+        int minute = timestamp.getHour() * 60 + timestamp.getMinute();
+        String label = timeLabels[minute];
+        if (label == null) {
+            label = String.format("%02d:%02d", timestamp.getHour(), timestamp.getMinute());
+            timeLabels[minute] = label;
+        }
+        return label;
+    }
+
+    // Greedy word wrap to wrapWidth pixels; explicit line breaks are kept
+    private void wrap(String text, List<Row> out) {
+        if (metrics == null) {
+            for (String part : text.split("\r?\n", -1)) {
+                out.add(new Row(part, false));
+            }
+            return;
+        }
+        for (String part : text.split("\r?\n", -1)) {
+            int length = part.length();
+            if (length == 0) {
+                out.add(new Row("", false));
+                continue;
+            }
+            int start = 0;
+            while (start < length) {
+                int width = 0;
+                int end = start;
+                int lastSpace = -1;
+                while (end < length) {
+                    char c = part.charAt(end);
+                    int charWidth = metrics.charWidth(c);
+                    if (width + charWidth > wrapWidth && end > start) {
+                        break;
+                    }
+                    if (c == ' ') {
+                        lastSpace = end;
+                    }
+                    width += charWidth;
+                    end++;
+                }
+                int next = end;
+                if (end < length && lastSpace > start) {
+                    end = lastSpace;
+                    next = lastSpace + 1;
+                }
+                out.add(new Row(part.substring(start, end), false));
+                start = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package gui;
+
+import models.UserSummary;
+import rmi.AsyncSkillSwapService;
+import config.DatabaseConfig;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+/**
+ * Picks a user to start a chat with. Users are listed in username order and
+ * fetched a page at a time: the first page when the dialog opens, the next
+ * one when the list is scrolled to its end, so opening the dialog costs one
+ * page however many users there are.
+ */
+class UserPickerDialog extends JDialog {
+    private static final long serialVersionUID = 1L;
+
+    private final transient AsyncSkillSwapService service;
+    private final String currentUsername;
+    private final DefaultListModel<UserSummary> users = new DefaultListModel<>();
+    private final JList<UserSummary> userList = new JList<>(users);
+    private final JLabel status = new JLabel(" ");
+    private final JButton chatButton = new JButton("Chat");
+    private String selectedUsername;
+    private boolean loading;
+    private boolean hasMore = true;
+
+    UserPickerDialog(Component parent, AsyncSkillSwapService service, String currentUsername) {
+        super(SwingUtilities.getWindowAncestor(parent), "New Chat", ModalityType.APPLICATION_MODAL);
+        this.service = service;
+        this.currentUsername = currentUsername;
+
+        userList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        userList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                UserSummary user = (UserSummary) value;
+                String displayName = user.getDisplayName();
+                String label = displayName == null || displayName.isEmpty()
+                        ? user.getUsername()
+                        : user.getUsername() + " (" + displayName + ")";
+                return super.getListCellRendererComponent(list, label, index, isSelected, cellHasFocus);
+            }
+        });
+        userList.addListSelectionListener(e -> chatButton.setEnabled(userList.getSelectedValue() != null));
+        userList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2 && userList.getSelectedValue() != null) {
+                    choose();
+                }
+            }
+        });
+
+        JScrollPane scroll = new JScrollPane(userList);
+        scroll.setPreferredSize(new Dimension(320, 360));
+        scroll.getVerticalScrollBar().addAdjustmentListener(e -> {
+            // Fetch the next page once the user scrolls to the end
+            JScrollBar bar = scroll.getVerticalScrollBar();
+            if (!e.getValueIsAdjusting() && e.getValue() + bar.getVisibleAmount() >= bar.getMaximum()) {
+                SwingUtilities.invokeLater(this::loadNextPage);
+            }
+        });
+
+        chatButton.setEnabled(false);
+        chatButton.addActionListener(e -> choose());
+        JButton cancelButton = new JButton("Cancel");
+        cancelButton.addActionListener(e -> dispose());
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(chatButton);
+        buttons.add(cancelButton);
+        JPanel south = new JPanel(new BorderLayout());
+        south.add(status, BorderLayout.WEST);
+        south.add(buttons, BorderLayout.EAST);
+
+        JPanel content = new JPanel(new BorderLayout(0, 8));
+        content.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        content.add(new JLabel("Select a user to chat with:"), BorderLayout.NORTH);
+        content.add(scroll, BorderLayout.CENTER);
+        content.add(south, BorderLayout.SOUTH);
+        setContentPane(content);
+        getRootPane().setDefaultButton(chatButton);
+        pack();
+        setLocationRelativeTo(parent);
+    }
+
+    /** Shows the dialog and returns the chosen username, or null if it was cancelled. */
+    String pick() {
+        loadNextPage();
+        setVisible(true);
+        return selectedUsername;
+    }
+
+    private void loadNextPage() {
+        if (loading || !hasMore) {
+            return;
+        }
+        loading = true;
+        status.setText("Loading users...");
+        String afterUsername = users.isEmpty() ? null : users.lastElement().getUsername();
+        int pageSize = DatabaseConfig.USER_PAGE_SIZE;
+        service.getUserSummaries(currentUsername, afterUsername, pageSize).whenComplete((page, error) -> {
+            loading = false;
+            if (error != null) {
+                status.setText("Error loading users: " + ChatPanel.errorMessage(error));
+                return;
+            }
+            hasMore = page.size() == pageSize;
+            for (UserSummary user : page) {
+                users.addElement(user);
+            }
+            status.setText(users.isEmpty() ? "No other users found." : " ");
+            // A first page too short to scroll would never ask for the next one
+            if (hasMore && userList.getLastVisibleIndex() == users.getSize() - 1) {
+                SwingUtilities.invokeLater(this::loadNextPage);
+            }
+        });
+    }
+
+    private void choose() {
+        selectedUsername = userList.getSelectedValue().getUsername();
+        dispose();
+    }
+}
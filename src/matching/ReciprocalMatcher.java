@@ -0,0 +1,167 @@
+package matching;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Ranks skill-exchange partners by two-way overlap: how many of my wanted
+ * skills they teach, and how many of my teachable skills they want to learn.
+ *
+ * Overlaps are counted from the skill indexes into one packed int per user,
+ * and only the best k candidates are kept in a bounded min-heap, so the cost
+ * is linear in the number of overlapping users rather than n log n. The
+ * count array (one int per user id) is scratch space borrowed from a small
+ * shared pool and cleared through the list of touched users, so requests
+ * only allocate one when all pooled arrays are in use. The pool keeps at
+ * most one array per processor, whichever threads the requests run on.
+ */
+public class ReciprocalMatcher {
+    // How often (in processed ids) the deadline is checked
+    private static final int DEADLINE_CHECK_INTERVAL = 4096;
+
+    public static final class Result {
+        public final int[] userIds;
+        public final int[] theyTeachCounts;
+        public final int[] theyLearnCounts;
+        public final boolean truncated;
+
+        Result(int[] userIds, int[] theyTeachCounts, int[] theyLearnCounts, boolean truncated) {
+            this.userIds = userIds;
+            this.theyTeachCounts = theyTeachCounts;
+            this.theyLearnCounts = theyLearnCounts;
+            this.truncated = truncated;
+        }
+    }
+
+    private static final class Scratch {
+        int[] counts = new int[0];
+        int[] touched = new int[64];
+    }
+
+    private static final BlockingQueue<Scratch> SCRATCH_POOL =
+            new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+
+    private final SkillIndex teachIndex;
+    private final SkillIndex learnIndex;
+
+    public ReciprocalMatcher(SkillIndex teachIndex, SkillIndex learnIndex) {
+        this.teachIndex = teachIndex;
+        this.learnIndex = learnIndex;
+    }
+
+    /**
+     * Returns the best k candidates for a user, best first. If the deadline
+     * passes, the best candidates seen so far are returned and the result is
+     * marked truncated.
+     */
+    public Result topK(int selfId, Collection<String> wantToLearn, Collection<String> canTeach,
+                       int k, long deadlineNanos) {
+        int maxUserId = Math.max(teachIndex.maxUserId(), learnIndex.maxUserId());
+        Scratch scratch = SCRATCH_POOL.poll();
+        if (scratch == null) {
+            scratch = new Scratch();
+        }
+        if (scratch.counts.length <= maxUserId) {
+            scratch.counts = new int[Math.max(maxUserId + 1, scratch.counts.length * 2)];
+        }
+        // High 16 bits: skills they teach that I want; low 16 bits: skills they want that I teach
+        int[] counts = scratch.counts;
+        int touchedCount = 0;
+        try {
+            boolean truncated = false;
+            int processed = 0;
+
+            outer:
+            for (int pass = 0; pass < 2; pass++) {
+                SkillIndex index = pass == 0 ? teachIndex : learnIndex;
+                int increment = pass == 0 ? 1 << 16 : 1;
+                for (String skill : distinct(pass == 0 ? wantToLearn : canTeach)) {
+                    for (int userId : index.usersFor(skill)) {
+                        if (userId == selfId || userId > maxUserId) {
+                            continue;
+                        }
+                        if (counts[userId] == 0) {
+                            if (touchedCount == scratch.touched.length) {
+                                int[] grown = new int[scratch.touched.length * 2];
+                                System.arraycopy(scratch.touched, 0, grown, 0, touchedCount);
+                                scratch.touched = grown;
+                            }
+                            scratch.touched[touchedCount++] = userId;
+                        }
+                        // Saturate rather than carry into the other half
+                        if (((pass == 0 ? counts[userId] >>> 16 : counts[userId] & 0xFFFF)) < 0xFFFF) {
+                            counts[userId] += increment;
+                        }
+                        if (++processed % DEADLINE_CHECK_INTERVAL == 0 && System.nanoTime() > deadlineNanos) {
+                            truncated = true;
+                            break outer;
+                        }
+                    }
+                }
+            }
+
+            int[] touched = scratch.touched;
+            PriorityQueue<Long> heap = new PriorityQueue<>(Math.max(1, Math.min(k, touchedCount)));
+            for (int i = 0; i < touchedCount && k > 0; i++) {
+                long key = rankKey(touched[i], counts[touched[i]]);
+                if (heap.size() < k) {
+                    heap.offer(key);
+                } else if (key > heap.peek()) {
+                    heap.poll();
+                    heap.offer(key);
+                }
+                if (!truncated && i % DEADLINE_CHECK_INTERVAL == DEADLINE_CHECK_INTERVAL - 1
+                        && System.nanoTime() > deadlineNanos) {
+                    truncated = true;
+                    break;
+                }
+            }
+
+            int size = heap.size();
+            int[] userIds = new int[size];
+            int[] theyTeach = new int[size];
+            int[] theyLearn = new int[size];
+            // The heap drains worst-first
+            for (int i = size - 1; i >= 0; i--) {
+                long key = heap.poll();
+                int userId = Integer.MAX_VALUE - (int) (key & 0xFFFFFFFFL);
+                userIds[i] = userId;
+                theyTeach[i] = counts[userId] >>> 16;
+                theyLearn[i] = counts[userId] & 0xFFFF;
+            }
+            return new Result(userIds, theyTeach, theyLearn, truncated);
+        } finally {
+            // Only touched users have non-zero counts
+            for (int i = 0; i < touchedCount; i++) {
+                counts[scratch.touched[i]] = 0;
+            }
+            // Dropped if the pool is full
+            SCRATCH_POOL.offer(scratch);
+        }
+    }
+
+    // Orders by reciprocal overlap, then total overlap, then lower user id
+    private static long rankKey(int userId, int packedCounts) {
+        long theyTeach = packedCounts >>> 16;
+        long theyLearn = packedCounts & 0xFFFF;
+        long reciprocal = Math.min(Math.min(theyTeach, theyLearn), 0x7FFF);
+        long total = Math.min(theyTeach + theyLearn, 0xFFFF);
+        return (reciprocal << 48) | (total << 32) | (Integer.MAX_VALUE - userId);
+    }
+
+    private static Set<String> distinct(Collection<String> skills) {
+        Set<String> normalized = new HashSet<>();
+        if (skills != null) {
+            for (String skill : skills) {
+                if (skill != null && !skill.trim().isEmpty()) {
+                    normalized.add(SkillIndex.normalizeSkill(skill));
+                }
+            }
+        }
+        return normalized;
+    }
+}
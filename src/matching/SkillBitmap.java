@@ -0,0 +1,131 @@
+package matching;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of user ids. Sparse sets are kept as a sorted int array and
+ * dense sets as a bitset, whichever is smaller.
+ */
+final class SkillBitmap {
+    static final SkillBitmap EMPTY = new SkillBitmap(new int[0], null, 0);
+
+    private final int[] sorted;
+    private final long[] words;
+    private final int cardinality;
+
+    private SkillBitmap(int[] sorted, long[] words, int cardinality) {
+        this.sorted = sorted;
+        this.words = words;
+        this.cardinality = cardinality;
+    }
+
+    // ids must be sorted and free of duplicates
+    static SkillBitmap of(int[] ids) {
+        if (ids.length == 0) {
+            return EMPTY;
+        }
+        int wordCount = (ids[ids.length - 1] >>> 6) + 1;
+        // 4 bytes per array entry vs 8 bytes per bitset word
+        if (ids.length <= wordCount * 2) {
+            return new SkillBitmap(ids, null, ids.length);
+        }
+        long[] words = new long[wordCount];
+        for (int id : ids) {
+            words[id >>> 6] |= 1L << id;
+        }
+        return new SkillBitmap(null, words, ids.length);
+    }
+
+    int cardinality() {
+        return cardinality;
+    }
+
+    boolean contains(int id) {
+        if (words != null) {
+            int w = id >>> 6;
+            return w < words.length && (words[w] & (1L << id)) != 0;
+        }
+        return Arrays.binarySearch(sorted, id) >= 0;
+    }
+
+    SkillBitmap with(int id) {
+        if (contains(id)) {
+            return this;
+        }
+        int[] ids = toArray();
+        int pos = -Arrays.binarySearch(ids, id) - 1;
+        int[] next = new int[ids.length + 1];
+        System.arraycopy(ids, 0, next, 0, pos);
+        next[pos] = id;
+        System.arraycopy(ids, pos, next, pos + 1, ids.length - pos);
+        return of(next);
+    }
+
+    SkillBitmap without(int id) {
+        if (!contains(id)) {
+            return this;
+        }
+        int[] ids = toArray();
+        int pos = Arrays.binarySearch(ids, id);
+        int[] next = new int[ids.length - 1];
+        System.arraycopy(ids, 0, next, 0, pos);
+        System.arraycopy(ids, pos + 1, next, pos, ids.length - pos - 1);
+        return of(next);
+    }
+
+    void orInto(long[] acc) {
+        if (words != null) {
+            for (int i = 0; i < words.length; i++) {
+                acc[i] |= words[i];
+            }
+        } else {
+            for (int id : sorted) {
+                acc[id >>> 6] |= 1L << id;
+            }
+        }
+    }
+
+    void andInto(long[] acc) {
+        if (words != null) {
+            int common = Math.min(words.length, acc.length);
+            for (int i = 0; i < common; i++) {
+                acc[i] &= words[i];
+            }
+            Arrays.fill(acc, common, acc.length, 0L);
+        } else {
+            long[] mask = new long[acc.length];
+            orInto(mask);
+            for (int i = 0; i < acc.length; i++) {
+                acc[i] &= mask[i];
+            }
+        }
+    }
+
+    int[] toArray() {
+        if (words == null) {
+            return sorted;
+        }
+        return SkillBitmap.toIds(words, cardinality);
+    }
+
+    static int[] toIds(long[] words, int expected) {
+        int[] ids = new int[expected >= 0 ? expected : countBits(words)];
+        int n = 0;
+        for (int i = 0; i < words.length; i++) {
+            long word = words[i];
+            while (word != 0) {
+                ids[n++] = (i << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return ids;
+    }
+
+    private static int countBits(long[] words) {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,238 @@
+package matching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory inverted index from skill to the ids of the users linked to it.
+ * The service keeps one instance for skills users teach and one for skills
+ * they want to learn.
+ *
+ * Readers work on an immutable snapshot published through a volatile field,
+ * so searches never take a lock. Writers are serialized and publish a new
+ * snapshot that shares every bitmap they did not touch. Writers use a
+ * ReentrantLock rather than a monitor because the initial load does JDBC I/O,
+ * which would pin a virtual thread's carrier inside synchronized.
+ */
+public class SkillIndex {
+    private static final class Snapshot {
+        final Map<String, SkillBitmap> bySkill;
+        final SkillBitmap linkedUsers;
+        final int maxUserId;
+
+        Snapshot(Map<String, SkillBitmap> bySkill, SkillBitmap linkedUsers, int maxUserId) {
+            this.bySkill = bySkill;
+            this.linkedUsers = linkedUsers;
+            this.maxUserId = maxUserId;
+        }
+    }
+
+    private volatile Snapshot snapshot;
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // Writer-side view used to diff updates; guarded by writeLock
+    private final Map<Integer, Set<String>> skillsByUser = new HashMap<>();
+
+    public boolean isLoaded() {
+        return snapshot != null;
+    }
+
+    public interface Loader {
+        // Returns skills keyed by user id
+        Map<Integer, List<String>> load() throws Exception;
+    }
+
+    /**
+     * Builds the index with the lock held, so updates from concurrent
+     * registrations are applied on top of the loaded state rather than lost.
+     */
+    public void loadIfAbsent(Loader loader) throws Exception {
+        writeLock.lock();
+        try {
+            load(loader);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void load(Loader loader) throws Exception {
+        if (snapshot != null) {
+            return;
+        }
+
+        Map<Integer, List<String>> skillsByUserId = loader.load();
+        Map<String, List<Integer>> usersBySkill = new HashMap<>();
+        List<Integer> linkedUserIds = new ArrayList<>();
+        int maxUserId = 0;
+
+        skillsByUser.clear();
+        for (Map.Entry<Integer, List<String>> entry : skillsByUserId.entrySet()) {
+            int userId = entry.getKey();
+            Set<String> skills = normalize(entry.getValue());
+            if (skills.isEmpty()) {
+                continue;
+            }
+            skillsByUser.put(userId, skills);
+            linkedUserIds.add(userId);
+            maxUserId = Math.max(maxUserId, userId);
+            for (String skill : skills) {
+                usersBySkill.computeIfAbsent(skill, k -> new ArrayList<>()).add(userId);
+            }
+        }
+
+        Map<String, SkillBitmap> bySkill = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : usersBySkill.entrySet()) {
+            bySkill.put(entry.getKey(), SkillBitmap.of(toSortedArray(entry.getValue())));
+        }
+        snapshot = new Snapshot(bySkill, SkillBitmap.of(toSortedArray(linkedUserIds)), maxUserId);
+    }
+
+    /**
+     * Replaces the skills of one user. Ignored until the index is loaded,
+     * since the initial load reads the committed state anyway.
+     */
+    public void setSkills(int userId, Collection<String> skills) {
+        writeLock.lock();
+        try {
+            update(userId, skills);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void update(int userId, Collection<String> skills) {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return;
+        }
+
+        Set<String> next = normalize(skills);
+        Set<String> previous = skillsByUser.getOrDefault(userId, Collections.emptySet());
+        if (next.equals(previous)) {
+            return;
+        }
+
+        Map<String, SkillBitmap> bySkill = new HashMap<>(current.bySkill);
+        for (String skill : previous) {
+            if (!next.contains(skill)) {
+                SkillBitmap users = bySkill.get(skill).without(userId);
+                if (users.cardinality() == 0) {
+                    bySkill.remove(skill);
+                } else {
+                    bySkill.put(skill, users);
+                }
+            }
+        }
+        for (String skill : next) {
+            if (!previous.contains(skill)) {
+                bySkill.put(skill, bySkill.getOrDefault(skill, SkillBitmap.EMPTY).with(userId));
+            }
+        }
+
+        SkillBitmap linkedUsers = next.isEmpty() ? current.linkedUsers.without(userId) : current.linkedUsers.with(userId);
+        if (next.isEmpty()) {
+            skillsByUser.remove(userId);
+        } else {
+            skillsByUser.put(userId, next);
+        }
+        snapshot = new Snapshot(bySkill, linkedUsers, Math.max(current.maxUserId, userId));
+    }
+
+    /** Users linked to at least one of the given skills, in ascending id order. */
+    public int[] matchAny(Collection<String> skills) {
+        Snapshot current = requireSnapshot();
+        long[] acc = new long[(current.maxUserId >>> 6) + 1];
+        for (String skill : normalize(skills)) {
+            SkillBitmap users = current.bySkill.get(skill);
+            if (users != null) {
+                users.orInto(acc);
+            }
+        }
+        return SkillBitmap.toIds(acc, -1);
+    }
+
+    /** Users linked to every one of the given skills, in ascending id order. */
+    public int[] matchAll(Collection<String> skills) {
+        Snapshot current = requireSnapshot();
+        Set<String> wanted = normalize(skills);
+        if (wanted.isEmpty()) {
+            return new int[0];
+        }
+
+        List<SkillBitmap> bitmaps = new ArrayList<>();
+        for (String skill : wanted) {
+            SkillBitmap users = current.bySkill.get(skill);
+            if (users == null) {
+                return new int[0];
+            }
+            bitmaps.add(users);
+        }
+        // Start from the rarest skill so the accumulator is as small as possible
+        bitmaps.sort((a, b) -> Integer.compare(a.cardinality(), b.cardinality()));
+
+        long[] acc = new long[(current.maxUserId >>> 6) + 1];
+        bitmaps.get(0).orInto(acc);
+        for (int i = 1; i < bitmaps.size(); i++) {
+            bitmaps.get(i).andInto(acc);
+        }
+        return SkillBitmap.toIds(acc, -1);
+    }
+
+    /** Users linked to at least one skill, in ascending id order. */
+    public int[] allUsers() {
+        return requireSnapshot().linkedUsers.toArray().clone();
+    }
+
+    int maxUserId() {
+        return requireSnapshot().maxUserId;
+    }
+
+    // Shared array; callers in this package must not modify it
+    int[] usersFor(String skill) {
+        SkillBitmap users = requireSnapshot().bySkill.get(normalizeSkill(skill));
+        return users == null ? new int[0] : users.toArray();
+    }
+
+    private Snapshot requireSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            throw new IllegalStateException("Skill index has not been loaded");
+        }
+        return current;
+    }
+
+    // Matches the case-insensitive collation of skills.skill_name
+    static String normalizeSkill(String skill) {
+        return skill.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<String> normalize(Collection<String> skills) {
+        Set<String> normalized = new HashSet<>();
+        if (skills != null) {
+            for (String skill : skills) {
+                if (skill != null && !skill.trim().isEmpty()) {
+                    normalized.add(normalizeSkill(skill));
+                }
+            }
+        }
+        return normalized;
+    }
+
+    private static int[] toSortedArray(List<Integer> ids) {
+        int[] array = new int[ids.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = ids.get(i);
+        }
+        Arrays.sort(array);
+        return array;
+    }
+}
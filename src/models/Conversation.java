@@ -0,0 +1,36 @@
+package models;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+public class Conversation implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String partnerUsername;
+    private int lastMessageId;
+    private String lastSenderUsername;
+    private LocalDateTime lastTimestamp;
+    private String preview;
+    private int unreadCount;
+
+    public Conversation() {}
+
+    // Getters and Setters
+    public String getPartnerUsername() { return partnerUsername; }
+    public void setPartnerUsername(String partnerUsername) { this.partnerUsername = partnerUsername; }
+
+    public int getLastMessageId() { return lastMessageId; }
+    public void setLastMessageId(int lastMessageId) { this.lastMessageId = lastMessageId; }
+
+    public String getLastSenderUsername() { return lastSenderUsername; }
+    public void setLastSenderUsername(String lastSenderUsername) { this.lastSenderUsername = lastSenderUsername; }
+
+    public LocalDateTime getLastTimestamp() { return lastTimestamp; }
+    public void setLastTimestamp(LocalDateTime lastTimestamp) { this.lastTimestamp = lastTimestamp; }
+
+    public String getPreview() { return preview; }
+    public void setPreview(String preview) { this.preview = preview; }
+
+    public int getUnreadCount() { return unreadCount; }
+    public void setUnreadCount(int unreadCount) { this.unreadCount = unreadCount; }
+}
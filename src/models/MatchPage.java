@@ -0,0 +1,39 @@
+package models;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MatchPage implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private List<SkillMatch> matches;
+    private int nextOffset;
+    private boolean hasMore;
+    // Set when the time budget ran out and the ranking only covers part of the candidates
+    private boolean partial;
+
+    public MatchPage() {
+        this.matches = new ArrayList<>();
+    }
+
+    public MatchPage(List<SkillMatch> matches, int nextOffset, boolean hasMore, boolean partial) {
+        this.matches = matches;
+        this.nextOffset = nextOffset;
+        this.hasMore = hasMore;
+        this.partial = partial;
+    }
+
+    // Getters and Setters
+    public List<SkillMatch> getMatches() { return matches; }
+    public void setMatches(List<SkillMatch> matches) { this.matches = matches; }
+
+    public int getNextOffset() { return nextOffset; }
+    public void setNextOffset(int nextOffset) { this.nextOffset = nextOffset; }
+
+    public boolean hasMore() { return hasMore; }
+    public void setHasMore(boolean hasMore) { this.hasMore = hasMore; }
+
+    public boolean isPartial() { return partial; }
+    public void setPartial(boolean partial) { this.partial = partial; }
+}
@@ -0,0 +1,37 @@
+package models;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+public class MessageSearchHit implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private int messageId;
+    private String senderUsername;
+    private String receiverUsername;
+    private LocalDateTime timestamp;
+    // Part of the message text around the first match
+    private String snippet;
+    private double score;
+
+    public MessageSearchHit() {}
+
+    // Getters and Setters
+    public int getMessageId() { return messageId; }
+    public void setMessageId(int messageId) { this.messageId = messageId; }
+
+    public String getSenderUsername() { return senderUsername; }
+    public void setSenderUsername(String senderUsername) { this.senderUsername = senderUsername; }
+
+    public String getReceiverUsername() { return receiverUsername; }
+    public void setReceiverUsername(String receiverUsername) { this.receiverUsername = receiverUsername; }
+
+    public LocalDateTime getTimestamp() { return timestamp; }
+    public void setTimestamp(LocalDateTime timestamp) { this.timestamp = timestamp; }
+
+    public String getSnippet() { return snippet; }
+    public void setSnippet(String snippet) { this.snippet = snippet; }
+
+    public double getScore() { return score; }
+    public void setScore(double score) { this.score = score; }
+}
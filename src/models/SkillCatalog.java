@@ -0,0 +1,29 @@
+package models;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SkillCatalog implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Changes whenever a skill is added; pass it back to getSkillCatalog to skip unchanged lists
+    private long version;
+    private List<String> skills;
+
+    public SkillCatalog() {
+        this.skills = new ArrayList<>();
+    }
+
+    public SkillCatalog(long version, List<String> skills) {
+        this.version = version;
+        this.skills = skills;
+    }
+
+    // Getters and Setters
+    public long getVersion() { return version; }
+    public void setVersion(long version) { this.version = version; }
+
+    public List<String> getSkills() { return skills; }
+    public void setSkills(List<String> skills) { this.skills = skills; }
+}
@@ -0,0 +1,44 @@
+package models;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SkillMatch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private User user;
+    private List<String> theyCanTeach;
+    private List<String> theyWantToLearn;
+    private int score;
+
+    public SkillMatch() {
+        this.theyCanTeach = new ArrayList<>();
+        this.theyWantToLearn = new ArrayList<>();
+    }
+
+    public SkillMatch(User user, List<String> theyCanTeach, List<String> theyWantToLearn, int score) {
+        this.user = user;
+        this.theyCanTeach = theyCanTeach;
+        this.theyWantToLearn = theyWantToLearn;
+        this.score = score;
+    }
+
+    // True when the exchange works in both directions
+    public boolean isReciprocal() {
+        return !theyCanTeach.isEmpty() && !theyWantToLearn.isEmpty();
+    }
+
+    // Getters and Setters
+    public User getUser() { return user; }
+    public void setUser(User user) { this.user = user; }
+
+    public List<String> getTheyCanTeach() { return theyCanTeach; }
+    public void setTheyCanTeach(List<String> theyCanTeach) { this.theyCanTeach = theyCanTeach; }
+
+    public List<String> getTheyWantToLearn() { return theyWantToLearn; }
+    public void setTheyWantToLearn(List<String> theyWantToLearn) { this.theyWantToLearn = theyWantToLearn; }
+
+    public int getScore() { return score; }
+    public void setScore(int score) { this.score = score; }
+}
@@ -0,0 +1,33 @@
+package models;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+// What lists of users need; the full User comes from getUserProfile
+public class UserSummary implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private int id;
+    private String username;
+    private String displayName;
+    // A few of the skills the user teaches
+    private List<String> topSkills;
+
+    public UserSummary() {
+        this.topSkills = new ArrayList<>();
+    }
+
+    // Getters and Setters
+    public int getId() { return id; }
+    public void setId(int id) { this.id = id; }
+
+    public String getUsername() { return username; }
+    public void setUsername(String username) { this.username = username; }
+
+    public String getDisplayName() { return displayName; }
+    public void setDisplayName(String displayName) { this.displayName = displayName; }
+
+    public List<String> getTopSkills() { return topSkills; }
+    public void setTopSkills(List<String> topSkills) { this.topSkills = topSkills; }
+}
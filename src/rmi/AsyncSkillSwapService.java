@@ -0,0 +1,160 @@
+package rmi;
+
+import config.DatabaseConfig;
+import models.Conversation;
+import models.Message;
+import models.MessageSearchHit;
+import models.User;
+import models.UserSummary;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.swing.SwingUtilities;
+
+/**
+ * Client-side asynchronous view of SkillSwapService for the GUI. Calls run on
+ * a small pool of background threads, fail with a TimeoutException after
+ * CLIENT_RMI_TIMEOUT_MS, and complete on the Swing event thread, so
+ * callbacks may touch components directly. Identical reads already in
+ * flight share one remote call.
+ */
+public class AsyncSkillSwapService {
+    @FunctionalInterface
+    public interface RemoteCall<T> {
+        T call(SkillSwapService service) throws RemoteException;
+    }
+
+    private final SkillSwapService service;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timeouts;
+    private final long timeoutMs;
+    private final Map<String, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+
+    public AsyncSkillSwapService(SkillSwapService service) {
+        this(service, DatabaseConfig.CLIENT_RMI_THREADS, DatabaseConfig.CLIENT_RMI_TIMEOUT_MS);
+    }
+
+    public AsyncSkillSwapService(SkillSwapService service, int threads, long timeoutMs) {
+        this.service = service;
+        this.timeoutMs = timeoutMs;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "rmi-client-" + counter.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        this.timeouts = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "rmi-client-timeouts");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Runs call in the background. Calls with the same non-null key share the
+     * pending result, so only pass a key for reads.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> submit(String key, RemoteCall<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (key != null) {
+            CompletableFuture<?> pending = inFlight.putIfAbsent(key, future);
+            if (pending != null) {
+                return (CompletableFuture<T>) pending;
+            }
+        }
+
+        ScheduledFuture<?> timeout = timeouts.schedule(() ->
+                finish(key, future, null, new TimeoutException("Server did not answer within " + timeoutMs + " ms")),
+                timeoutMs, TimeUnit.MILLISECONDS);
+        executor.execute(() -> {
+            try {
+                finish(key, future, call.call(service), null);
+            } catch (Exception e) {
+                finish(key, future, null, e);
+            } finally {
+                timeout.cancel(false);
+            }
+        });
+        return future;
+    }
+
+    private <T> void finish(String key, CompletableFuture<T> future, T result, Throwable error) {
+        if (key != null) {
+            inFlight.remove(key, future);
+        }
+        SwingUtilities.invokeLater(() -> {
+            if (error == null) {
+                future.complete(result);
+            } else {
+                future.completeExceptionally(error);
+            }
+        });
+    }
+
+    public CompletableFuture<List<Conversation>> getConversations(String username, int limit) {
+        return submit(key("getConversations", username, limit),
+                s -> s.getConversations(username, limit));
+    }
+
+    public CompletableFuture<Void> markConversationRead(String username, String partnerUsername) {
+        return submit(null, s -> {
+            s.markConversationRead(username, partnerUsername);
+            return null;
+        });
+    }
+
+    public CompletableFuture<List<Message>> getChatHistoryBefore(String user1, String user2, int beforeId, int limit) {
+        return submit(key("getChatHistoryBefore", user1, user2, beforeId, limit),
+                s -> s.getChatHistoryBefore(user1, user2, beforeId, limit));
+    }
+
+    public CompletableFuture<List<Message>> getChatHistoryAfter(String user1, String user2, int afterId, int limit) {
+        return submit(key("getChatHistoryAfter", user1, user2, afterId, limit),
+                s -> s.getChatHistoryAfter(user1, user2, afterId, limit));
+    }
+
+    public CompletableFuture<List<MessageSearchHit>> searchMessages(String username, String query, int limit) {
+        return submit(key("searchMessages", username, query, limit), s -> s.searchMessages(username, query, limit));
+    }
+
+    public CompletableFuture<Void> saveMessage(Message message) {
+        // Two identical messages are still two messages, so saves are never shared
+        return submit(null, s -> {
+            s.saveMessage(message);
+            return null;
+        });
+    }
+
+    public CompletableFuture<List<User>> getAllUsers(String currentUsername) {
+        return submit(key("getAllUsers", currentUsername), s -> s.getAllUsers(currentUsername));
+    }
+
+    public CompletableFuture<List<UserSummary>> getUserSummaries(String currentUsername, String afterUsername, int limit) {
+        return submit(key("getUserSummaries", currentUsername, afterUsername, limit),
+                s -> s.getUserSummaries(currentUsername, afterUsername, limit));
+    }
+
+    // NUL-separated, so ("a:b", "c") and ("a", "b:c") get different keys
+    private static String key(Object... parts) {
+        StringBuilder sb = new StringBuilder();
+        for (Object part : parts) {
+            sb.append(part).append('\0');
+        }
+        return sb.toString();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        timeouts.shutdown();
+    }
+}
@@ -1,9 +1,14 @@
 package rmi;
 
 import models.Blog;
+import models.Conversation;
+import models.MatchPage;
 import models.Message;
+import models.MessageSearchHit;
 import models.Report;
+import models.SkillCatalog;
 import models.User;
+import models.UserSummary;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.List;
@@ -20,14 +25,33 @@ public interface SkillSwapService extends Remote {
     // Skills Management
     List<String> getAllSkills() throws RemoteException;
     boolean addSkill(String skillName) throws RemoteException;
+    // Null while knownVersion is still current, so clients can keep their cached list
+    SkillCatalog getSkillCatalog(long knownVersion) throws RemoteException;
 
     // User Search and Matching
     List<User> searchUsersBySkills(List<String> skillsToLearn, String currentUsername) throws RemoteException;
     List<User> getAllUsers(String currentUsername) throws RemoteException;
+    // Keyset pages of compact user entries: ordered by username after afterUsername (null for the first page),
+    // and by id after afterId for skill searches. A page shorter than limit is the last one.
+    List<UserSummary> getUserSummaries(String currentUsername, String afterUsername, int limit) throws RemoteException;
+    List<UserSummary> searchUserSummariesBySkills(List<String> skillsToLearn, String currentUsername, int afterId,
+                                                  int limit) throws RemoteException;
+    // Ranked by two-way skill overlap; timeBudgetMs <= 0 uses the server default
+    MatchPage findSkillExchangeMatches(String username, int offset, int limit, long timeBudgetMs) throws RemoteException;
 
     // Chat History
     List<models.Message> getChatHistory(String user1, String user2) throws RemoteException;
+    // Keyset pages in ascending id order; beforeId <= 0 returns the newest page
+    List<Message> getChatHistoryBefore(String user1, String user2, int beforeId, int limit) throws RemoteException;
+    List<Message> getChatHistoryAfter(String user1, String user2, int afterId, int limit) throws RemoteException;
     void saveMessage(models.Message message) throws RemoteException;
+    // Stores the messages in order and returns their ids
+    int[] saveMessages(List<Message> messages) throws RemoteException;
+    // Full-text search over the user's own conversations, best matches first
+    List<MessageSearchHit> searchMessages(String username, String query, int limit) throws RemoteException;
+    // Inbox: one entry per chat partner, most recent first
+    List<Conversation> getConversations(String username, int limit) throws RemoteException;
+    void markConversationRead(String username, String partnerUsername) throws RemoteException;
 
 
 
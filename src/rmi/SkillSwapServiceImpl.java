@@ -1,38 +1,118 @@
 package rmi;
 
 import config.DatabaseConfig;
+import db.ConnectionPool;
+import db.ConversationIndex;
+import db.JdbcMessageRepository;
+import db.MessageLog;
+import db.MessageRepository;
+import db.PoolStats;
+import db.SkillDictionary;
+import matching.ReciprocalMatcher;
+import matching.SkillIndex;
 import models.User;
+import models.UserSummary;
 import models.Blog;
 import models.Category;
+import models.Conversation;
+import models.MatchPage;
 import models.Message;
+import models.MessageSearchHit;
 import models.Report;
-
+import models.SkillCatalog;
+import models.SkillMatch;
+import search.MessageIndexer;
+import search.MessageSearchIndex;
+import util.CacheStats;
+import util.LoadingCache;
+
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 public class SkillSwapServiceImpl extends UnicastRemoteObject implements SkillSwapService {
     private static final long serialVersionUID = 1L;
 
+    private final transient ConnectionPool pool;
+    private final transient MessageRepository messages;
+    private final transient SkillDictionary skills = new SkillDictionary();
+    private final transient MessageSearchIndex searchIndex = new MessageSearchIndex();
+    private final transient MessageIndexer indexer;
+    // Keyed by username; writes invalidate the stored username of the row they changed
+    private final transient LoadingCache<String, User> profiles = new LoadingCache<>(this::loadUserProfile,
+            SkillSwapServiceImpl::estimateSize, DatabaseConfig.PROFILE_CACHE_MAX_BYTES,
+            DatabaseConfig.PROFILE_CACHE_EXPIRE_MS, TimeUnit.MILLISECONDS);
+    private final transient SkillIndex teachIndex = new SkillIndex();
+    private final transient SkillIndex learnIndex = new SkillIndex();
+    private final transient ReciprocalMatcher matcher = new ReciprocalMatcher(teachIndex, learnIndex);
+
     public SkillSwapServiceImpl() throws RemoteException {
         super();
+        try {
+            pool = new ConnectionPool();
+        } catch (SQLException e) {
+            throw new RemoteException("Failed to initialize database connection pool", e);
+        }
+        try (Connection conn = pool.getConnection()) {
+            skills.load(conn);
+            // Before any message is stored, so no message transaction ever runs DDL
+            ConversationIndex.ensureTable(conn);
+        } catch (SQLException e) {
+            pool.close();
+            throw new RemoteException("Failed to load skills or the conversations table", e);
+        }
+        messages = openMessageRepository(pool);
+        indexer = new MessageIndexer(messages, searchIndex);
+        indexer.start();
     }
 
-    private Connection getConnection() throws SQLException {
+    private static MessageRepository openMessageRepository(ConnectionPool pool) throws RemoteException {
+        if (!"log".equals(DatabaseConfig.MESSAGE_STORE_ENGINE)) {
+            return new JdbcMessageRepository(pool);
+        }
         try {
-            Class.forName(DatabaseConfig.JDBC_DRIVER);
-            return DriverManager.getConnection(DatabaseConfig.DB_URL,
-                    DatabaseConfig.DB_USER,
-                    DatabaseConfig.DB_PASSWORD);
-        } catch (ClassNotFoundException e) {
-            throw new SQLException("MySQL JDBC Driver not found", e);
+            return new MessageLog(Paths.get(System.getProperty("user.home"), DatabaseConfig.MESSAGE_LOG_DIR), pool);
+        } catch (IOException | SQLException e) {
+            pool.close();
+            throw new RemoteException("Failed to open message log", e);
         }
     }
 
+    private Connection getConnection() throws SQLException {
+        return pool.getConnection();
+    }
+
+    public PoolStats getPoolStats() {
+        return pool.getStats();
+    }
+
+    public CacheStats getProfileCacheStats() {
+        return profiles.getStats();
+    }
+
+    public void shutdown() {
+        indexer.close();
+        messages.close();
+        pool.close();
+    }
+
     private String hashPassword(String password) {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-256");
@@ -53,9 +133,11 @@ public class SkillSwapServiceImpl extends UnicastRemoteObject implements SkillSw
 
     @Override
     public User login(String username, String password) throws RemoteException {
+        String matchedUsername = null;
         try (Connection conn = getConnection()) {
             String hashedPassword = hashPassword(password);
-            String sql = "SELECT * FROM users WHERE (username = ? OR email = ?) AND password_hash = ?";
+            // Only the credentials come from here; the profile itself is usually cached
+            String sql = "SELECT username FROM users WHERE (username = ? OR email = ?) AND password_hash = ?";
             PreparedStatement stmt = conn.prepareStatement(sql);
             stmt.setString(1, username);
             stmt.setString(2, username);
@@ -63,28 +145,19 @@ public class SkillSwapServiceImpl extends UnicastRemoteObject implements SkillSw
 
             ResultSet rs = stmt.executeQuery();
             if (rs.next()) {
-                User user = new User();
-                user.setId(rs.getInt("id"));
-                user.setUsername(rs.getString("username"));
-                user.setEmail(rs.getString("email"));
-                user.setFullName(rs.getString("full_name"));
-                user.setBio(rs.getString("bio"));
-                user.setProfilePicture(rs.getString("profile_picture"));
-                user.setSocialLinks(rs.getString("social_links"));
-
-                // Load skills
-                loadUserSkills(user, conn);
-                return user;
+                matchedUsername = rs.getString("username");
             }
+            rs.close();
         } catch (SQLException e) {
             throw new RemoteException("Database error during login", e);
         }
-        return null;
+        return matchedUsername != null ? getUserProfile(matchedUsername) : null;
     }
 
     @Override
     public boolean register(User user) throws RemoteException {
         try (Connection conn = getConnection()) {
+            Map<String, Integer> skillIds = resolveSkillIds(user, conn);
             conn.setAutoCommit(false);
 
             // Insert user
@@ -106,8 +179,12 @@ public class SkillSwapServiceImpl extends UnicastRemoteObject implements SkillSw
                     user.setId(userId);
 
                     // Insert skills
-                    saveUserSkills(user, conn);
+                    saveUserSkills(userId, "user_skills_teach", user.getSkillsToTeach(), skillIds, false, conn);
+                    saveUserSkills(userId, "user_skills_learn", user.getSkillsToLearn(), skillIds, false, conn);
                     conn.commit();
+                    profiles.invalidate(user.getUsername());
+                    teachIndex.setSkills(userId, user.getSkillsToTeach());
+                    learnIndex.setSkills(userId, user.getSkillsToLearn());
                     return true;
                 }
             }
@@ -121,6 +198,8 @@ public class SkillSwapServiceImpl extends UnicastRemoteObject implements SkillSw
     @Override
     public boolean updateProfile(User user) throws RemoteException {
         try (Connection conn = getConnection()) {
+            // Outside the transaction: new skills are shared and harmless even if the update fails
+            Map<String, Integer> skillIds = resolveSkillIds(user, conn);
             conn.setAutoCommit(false);
 
             String sql = "UPDATE users SET full_name = ?, bio = ?, profile_picture = ?, social_links = ? WHERE id = ?";
@@ -131,13 +210,26 @@ public class SkillSwapServiceImpl extends UnicastRemoteObject implements SkillSw
             stmt.setString(4, user.getSocialLinks());
             stmt.setInt(5, user.getId());
 
+            // The user row stays locked until commit, so concurrent updates of one user diff in turn
             int result = stmt.executeUpdate();
             if (result > 0) {
-                // Delete existing skills
-                deleteUserSkills(user.getId(), conn);
-                // Insert updated skills
-                saveUserSkills(user, conn);
+                // The row is keyed by id, so the username the client sent may not be the one cached
+                String username = null;
+                PreparedStatement select = conn.prepareStatement("SELECT username FROM users WHERE id = ?");
+                select.setInt(1, user.getId());
+                try (ResultSet rs = select.executeQuery()) {
+                    if (rs.next()) {
+                        username = rs.getString("username");
+                    }
+                }
+                saveUserSkills(user.getId(), "user_skills_teach", user.getSkillsToTeach(), skillIds, true, conn);
+                saveUserSkills(user.getId(), "user_skills_learn", user.getSkillsToLearn(), skillIds, true, conn);
                 conn.commit();
+                if (username != null) {
+                    profiles.invalidate(username);
+                }
+                teachIndex.setSkills(user.getId(), user.getSkillsToTeach());
+                learnIndex.setSkills(user.getId(), user.getSkillsToLearn());
                 return true;
             }
             conn.rollback();
@@ -149,6 +241,14 @@ public class SkillSwapServiceImpl extends UnicastRemoteObject implements SkillSw
 
     @Override
     public User getUserProfile(String username) throws RemoteException {
+        try {
+            return profiles.get(username);
+        } catch (Exception e) {
+            throw new RemoteException("Database error while fetching user profile", e);
+        }
+    }
+
+    private User loadUserProfile(String username) throws SQLException {
         try (Connection conn = getConnection()) {
             String sql = "SELECT * FROM users WHERE username = ?";
             PreparedStatement stmt = conn.prepareStatement(sql);
@@ -156,48 +256,45 @@ public class SkillSwapServiceImpl extends UnicastRemoteObject implements SkillSw
 
             ResultSet rs = stmt.executeQuery();
             if (rs.next()) {
-                User user = new User();
-                user.setId(rs.getInt("id"));
-                user.setUsername(rs.getString("username"));
-                user.setEmail(rs.getString("email"));
-                user.setFullName(rs.getString("full_name"));
-                user.setBio(rs.getString("bio"));
-                user.setProfilePicture(rs.getString("profile_picture"));
-                user.setSocialLinks(rs.getString("social_links"));
-
-                loadUserSkills(user, conn);
+                User user = mapUser(rs);
+                loadUserSkills(Collections.singletonList(user), skills, conn);
                 return user;
             }
-        } catch (SQLException e) {
-            throw new RemoteException("Database error while fetching user profile", e);
         }
         return null;
     }
 
+    // Rough heap footprint: object headers plus two bytes per character
+    private static int estimateSize(User user) {
+        int size = 256;
+        for (String field : new String[] {user.getUsername(), user.getEmail(), user.getFullName(), user.getBio(),
+                user.getProfilePicture(), user.getSocialLinks()}) {
+            size += field != null ? 48 + 2 * field.length() : 0;
+        }
+        for (String skill : user.getSkillsToTeach()) {
+            size += 48 + 2 * skill.length();
+        }
+        for (String skill : user.getSkillsToLearn()) {
+            size += 48 + 2 * skill.length();
+        }
+        return size;
+    }
+
     @Override
     public List<String> getAllSkills() throws RemoteException {
-        List<String> skills = new ArrayList<>();
-        try (Connection conn = getConnection()) {
-            String sql = "SELECT skill_name FROM skills ORDER BY skill_name";
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery(sql);
+        return skills.sortedNames();
+    }
 
-            while (rs.next()) {
-                skills.add(rs.getString("skill_name"));
-            }
-        } catch (SQLException e) {
-            throw new RemoteException("Database error while fetching skills", e);
-        }
-        return skills;
+    @Override
+    public SkillCatalog getSkillCatalog(long knownVersion) throws RemoteException {
+        SkillCatalog catalog = skills.catalog();
+        return catalog.getVersion() == knownVersion ? null : catalog;
     }
 
     @Override
     public boolean addSkill(String skillName) throws RemoteException {
         try (Connection conn = getConnection()) {
-            String sql = "INSERT IGNORE INTO skills (skill_name) VALUES (?)";
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setString(1, skillName);
-            return stmt.executeUpdate() > 0;
+            return skills.add(skillName, conn);
         } catch (SQLException e) {
             throw new RemoteException("Database error while adding skill", e);
         }
@@ -205,48 +302,94 @@ public class SkillSwapServiceImpl extends UnicastRemoteObject implements SkillSw
 
     @Override
     public List<User> searchUsersBySkills(List<String> skillsToLearn, String currentUsername) throws RemoteException {
-        List<User> matchedUsers = new ArrayList<>();
+        List<User> matchedUsers;
+        try {
+            ensureSkillIndexLoaded(teachIndex, "user_skills_teach");
+        } catch (SQLException e) {
+            throw new RemoteException("Database error while building skill index", e);
+        }
+
         try (Connection conn = getConnection()) {
-            StringBuilder sql = new StringBuilder();
-            sql.append("SELECT DISTINCT u.* FROM users u ");
-            sql.append("JOIN user_skills_teach ust ON u.id = ust.user_id ");
-            sql.append("JOIN skills s ON ust.skill_id = s.id ");
-            sql.append("WHERE u.username != ? ");
-
-            if (!skillsToLearn.isEmpty()) {
-                sql.append("AND s.skill_name IN (");
-                for (int i = 0; i < skillsToLearn.size(); i++) {
-                    sql.append("?");
-                    if (i < skillsToLearn.size() - 1) sql.append(",");
-                }
-                sql.append(")");
-            }
+            // Matching runs against the in-memory index; MySQL only supplies the profiles
+            int[] userIds = skillsToLearn.isEmpty()
+                    ? teachIndex.allUsers()
+                    : teachIndex.matchAny(skillsToLearn);
+            matchedUsers = loadUsersByIds(userIds, currentUsername, conn);
+            loadUserSkills(matchedUsers, skills, conn);
+        } catch (SQLException e) {
+            throw new RemoteException("Database error during user search", e);
+        }
+        return matchedUsers;
+    }
 
-            PreparedStatement stmt = conn.prepareStatement(sql.toString());
-            stmt.setString(1, currentUsername);
+    @Override
+    public MatchPage findSkillExchangeMatches(String username, int offset, int limit, long timeBudgetMs) throws RemoteException {
+        long budgetMs = timeBudgetMs > 0 ? timeBudgetMs : DatabaseConfig.MATCH_TIME_BUDGET_MS;
+        long deadline = System.nanoTime() + budgetMs * 1_000_000L;
+        offset = Math.max(0, offset);
+        limit = limit <= 0 ? DatabaseConfig.MATCH_PAGE_SIZE : Math.min(limit, DatabaseConfig.MATCH_MAX_PAGE_SIZE);
+
+        try {
+            ensureSkillIndexLoaded(teachIndex, "user_skills_teach");
+            ensureSkillIndexLoaded(learnIndex, "user_skills_learn");
+        } catch (SQLException e) {
+            throw new RemoteException("Database error while building skill index", e);
+        }
+
+        User self = getUserProfile(username);
+        if (self == null) {
+            return new MatchPage();
+        }
+
+        // Select one extra candidate to know whether another page exists
+        int k = (int) Math.min((long) offset + limit + 1, Integer.MAX_VALUE);
+        ReciprocalMatcher.Result ranked = matcher.topK(self.getId(), self.getSkillsToLearn(),
+                self.getSkillsToTeach(), k, deadline);
 
-            for (int i = 0; i < skillsToLearn.size(); i++) {
-                stmt.setString(i + 2, skillsToLearn.get(i));
+        try (Connection conn = getConnection()) {
+            int end = Math.min(ranked.userIds.length, offset + limit);
+            if (offset >= end) {
+                return new MatchPage(new ArrayList<>(), offset, false, ranked.truncated);
             }
 
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                User user = new User();
-                user.setId(rs.getInt("id"));
-                user.setUsername(rs.getString("username"));
-                user.setEmail(rs.getString("email"));
-                user.setFullName(rs.getString("full_name"));
-                user.setBio(rs.getString("bio"));
-                user.setProfilePicture(rs.getString("profile_picture"));
-                user.setSocialLinks(rs.getString("social_links"));
-
-                loadUserSkills(user, conn);
-                matchedUsers.add(user);
+            int[] pageIds = Arrays.copyOfRange(ranked.userIds, offset, end);
+            Map<Integer, User> usersById = new HashMap<>();
+            List<User> users = loadUsersByIds(pageIds, username, conn);
+            loadUserSkills(users, skills, conn);
+            for (User user : users) {
+                usersById.put(user.getId(), user);
             }
+
+            List<SkillMatch> matches = new ArrayList<>();
+            for (int i = offset; i < end; i++) {
+                User user = usersById.get(ranked.userIds[i]);
+                if (user == null) {
+                    continue;
+                }
+                List<String> theyCanTeach = overlap(user.getSkillsToTeach(), self.getSkillsToLearn());
+                List<String> theyWantToLearn = overlap(user.getSkillsToLearn(), self.getSkillsToTeach());
+                int score = ranked.theyTeachCounts[i] + ranked.theyLearnCounts[i];
+                matches.add(new SkillMatch(user, theyCanTeach, theyWantToLearn, score));
+            }
+            return new MatchPage(matches, end, ranked.userIds.length > end, ranked.truncated);
         } catch (SQLException e) {
-            throw new RemoteException("Database error during user search", e);
+            throw new RemoteException("Database error while ranking skill matches", e);
         }
-        return matchedUsers;
+    }
+
+    // Skills present in both lists, compared case-insensitively like the skills table
+    private static List<String> overlap(List<String> skills, List<String> wanted) {
+        Set<String> wantedNormalized = new HashSet<>();
+        for (String skill : wanted) {
+            wantedNormalized.add(SkillDictionary.key(skill));
+        }
+        List<String> common = new ArrayList<>();
+        for (String skill : skills) {
+            if (wantedNormalized.contains(SkillDictionary.key(skill))) {
+                common.add(skill);
+            }
+        }
+        return common;
     }
 
     @Override
@@ -259,18 +402,9 @@ public class SkillSwapServiceImpl extends UnicastRemoteObject implements SkillSw
 
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
-                User user = new User();
-                user.setId(rs.getInt("id"));
-                user.setUsername(rs.getString("username"));
-                user.setEmail(rs.getString("email"));
-                user.setFullName(rs.getString("full_name"));
-                user.setBio(rs.getString("bio"));
-                user.setProfilePicture(rs.getString("profile_picture"));
-                user.setSocialLinks(rs.getString("social_links"));
-
-                loadUserSkills(user, conn);
-                users.add(user);
+                users.add(mapUser(rs));
             }
+            loadUserSkills(users, skills, conn);
         } catch (SQLException e) {
             throw new RemoteException("Database error while fetching all users", e);
         }
@@ -278,201 +412,480 @@ public class SkillSwapServiceImpl extends UnicastRemoteObject implements SkillSw
     }
 
     @Override
-    public List<Message> getChatHistory(String user1, String user2) throws RemoteException {
-        List<Message> messages = new ArrayList<>();
+    public List<UserSummary> getUserSummaries(String currentUsername, String afterUsername, int limit) throws RemoteException {
+        List<UserSummary> summaries = new ArrayList<>();
         try (Connection conn = getConnection()) {
-            String sql = "SELECT * FROM messages WHERE " +
-                    "(sender_username = ? AND receiver_username = ?) OR " +
-                    "(sender_username = ? AND receiver_username = ?) " +
-                    "ORDER BY timestamp ASC";
+            String sql = "SELECT id, username, full_name FROM users WHERE username != ? AND username > ? " +
+                    "ORDER BY username LIMIT ?";
             PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setString(1, user1);
-            stmt.setString(2, user2);
-            stmt.setString(3, user2);
-            stmt.setString(4, user1);
+            stmt.setString(1, currentUsername);
+            stmt.setString(2, afterUsername != null ? afterUsername : "");
+            stmt.setInt(3, clampUserPageSize(limit));
 
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
-                Message message = new Message();
-                message.setId(rs.getInt("id"));
-                message.setSenderUsername(rs.getString("sender_username"));
-                message.setReceiverUsername(rs.getString("receiver_username"));
-                message.setMessage(rs.getString("message"));
-                message.setTimestamp(rs.getTimestamp("timestamp").toLocalDateTime());
-                messages.add(message);
+                summaries.add(mapUserSummary(rs));
             }
+            rs.close();
+            loadTopSkills(summaries, Collections.emptyList(), conn);
         } catch (SQLException e) {
-            throw new RemoteException("Database error while fetching chat history", e);
+            throw new RemoteException("Database error while fetching users", e);
         }
-        return messages;
+        return summaries;
     }
 
     @Override
-    public void saveMessage(Message message) throws RemoteException {
+    public List<UserSummary> searchUserSummariesBySkills(List<String> skillsToLearn, String currentUsername, int afterId,
+                                                         int limit) throws RemoteException {
+        try {
+            ensureSkillIndexLoaded(teachIndex, "user_skills_teach");
+        } catch (SQLException e) {
+            throw new RemoteException("Database error while building skill index", e);
+        }
+
+        int pageSize = clampUserPageSize(limit);
+        int[] userIds = skillsToLearn.isEmpty()
+                ? teachIndex.allUsers()
+                : teachIndex.matchAny(skillsToLearn);
+        int at = Arrays.binarySearch(userIds, afterId);
+        int from = at >= 0 ? at + 1 : -at - 1;
+        // One extra id, in case the current user is on the page
+        int[] pageIds = Arrays.copyOfRange(userIds, from, Math.min(userIds.length, from + pageSize + 1));
+
+        List<UserSummary> summaries = new ArrayList<>();
         try (Connection conn = getConnection()) {
-            String sql = "INSERT INTO messages (sender_username, receiver_username, message) VALUES (?, ?, ?)";
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setString(1, message.getSenderUsername());
-            stmt.setString(2, message.getReceiverUsername());
-            stmt.setString(3, message.getMessage());
-            stmt.executeUpdate();
+            for (int start = 0; start < pageIds.length; start += DatabaseConfig.SKILL_BATCH_SIZE) {
+                int end = Math.min(start + DatabaseConfig.SKILL_BATCH_SIZE, pageIds.length);
+                int slots = paddedSlots(end - start);
+                String sql = "SELECT id, username, full_name FROM users WHERE username != ? AND id IN (" +
+                        placeholders(slots) + ") ORDER BY id";
+                PreparedStatement stmt = conn.prepareStatement(sql);
+                stmt.setString(1, currentUsername);
+                for (int i = 0; i < slots; i++) {
+                    stmt.setInt(i + 2, pageIds[Math.min(start + i, end - 1)]);
+                }
+
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    summaries.add(mapUserSummary(rs));
+                }
+                rs.close();
+            }
+            if (summaries.size() > pageSize) {
+                summaries = new ArrayList<>(summaries.subList(0, pageSize));
+            }
+            loadTopSkills(summaries, skillsToLearn, conn);
         } catch (SQLException e) {
-            throw new RemoteException("Database error while saving message", e);
+            throw new RemoteException("Database error during user search", e);
         }
+        return summaries;
     }
 
-    private void loadUserSkills(User user, Connection conn) throws SQLException {
-        // Load skills to teach
-        String sql = "SELECT s.skill_name FROM skills s " +
-                "JOIN user_skills_teach ust ON s.id = ust.skill_id " +
-                "WHERE ust.user_id = ?";
+    private static int clampUserPageSize(int limit) {
+        if (limit <= 0) {
+            return DatabaseConfig.USER_PAGE_SIZE;
+        }
+        return Math.min(limit, DatabaseConfig.USER_MAX_PAGE_SIZE);
+    }
+
+    // Up to USER_SUMMARY_TOP_SKILLS taught skills per user, the wanted ones first
+    private void loadTopSkills(List<UserSummary> summaries, List<String> wanted, Connection conn) throws SQLException {
+        if (summaries.isEmpty()) {
+            return;
+        }
+        Map<Integer, UserSummary> summariesById = new HashMap<>();
+        for (UserSummary summary : summaries) {
+            summariesById.put(summary.getId(), summary);
+        }
+        Set<String> wantedNormalized = new HashSet<>();
+        for (String skill : wanted) {
+            wantedNormalized.add(SkillDictionary.key(skill));
+        }
+
+        // Pages are at most USER_MAX_PAGE_SIZE, well within one IN-list
+        int slots = paddedSlots(summaries.size());
+        String sql = "SELECT ust.user_id, s.skill_name FROM user_skills_teach ust " +
+                "JOIN skills s ON s.id = ust.skill_id WHERE ust.user_id IN (" + placeholders(slots) + ") " +
+                "ORDER BY s.skill_name";
         PreparedStatement stmt = conn.prepareStatement(sql);
-        stmt.setInt(1, user.getId());
-        ResultSet rs = stmt.executeQuery();
+        for (int i = 0; i < slots; i++) {
+            stmt.setInt(i + 1, summaries.get(Math.min(i, summaries.size() - 1)).getId());
+        }
 
-        List<String> skillsToTeach = new ArrayList<>();
+        Map<Integer, List<String>> others = new HashMap<>();
+        ResultSet rs = stmt.executeQuery();
         while (rs.next()) {
-            skillsToTeach.add(rs.getString("skill_name"));
+            int userId = rs.getInt("user_id");
+            String skill = rs.getString("skill_name");
+            if (wantedNormalized.contains(SkillDictionary.key(skill))) {
+                summariesById.get(userId).getTopSkills().add(skill);
+            } else {
+                others.computeIfAbsent(userId, id -> new ArrayList<>()).add(skill);
+            }
         }
-        user.setSkillsToTeach(skillsToTeach);
+        rs.close();
 
-        // Load skills to learn
-        sql = "SELECT s.skill_name FROM skills s " +
-                "JOIN user_skills_learn usl ON s.id = usl.skill_id " +
-                "WHERE usl.user_id = ?";
-        stmt = conn.prepareStatement(sql);
-        stmt.setInt(1, user.getId());
-        rs = stmt.executeQuery();
+        for (UserSummary summary : summaries) {
+            List<String> top = summary.getTopSkills();
+            top.addAll(others.getOrDefault(summary.getId(), Collections.emptyList()));
+            if (top.size() > DatabaseConfig.USER_SUMMARY_TOP_SKILLS) {
+                summary.setTopSkills(new ArrayList<>(top.subList(0, DatabaseConfig.USER_SUMMARY_TOP_SKILLS)));
+            }
+        }
+    }
 
-        List<String> skillsToLearn = new ArrayList<>();
-        while (rs.next()) {
-            skillsToLearn.add(rs.getString("skill_name"));
+    @Override
+    public List<Message> getChatHistory(String user1, String user2) throws RemoteException {
+        try {
+            return messages.getChatHistory(user1, user2);
+        } catch (SQLException | IOException e) {
+            throw new RemoteException("Database error while fetching chat history", e);
         }
-        user.setSkillsToLearn(skillsToLearn);
     }
 
-    private void saveUserSkills(User user, Connection conn) throws SQLException {
-        // Save skills to teach
-        for (String skill : user.getSkillsToTeach()) {
-            int skillId = getOrCreateSkillId(skill, conn);
-            String sql = "INSERT INTO user_skills_teach (user_id, skill_id) VALUES (?, ?)";
+    @Override
+    public List<Message> getChatHistoryBefore(String user1, String user2, int beforeId, int limit) throws RemoteException {
+        try {
+            return messages.getChatHistoryBefore(user1, user2, beforeId, clampPageSize(limit));
+        } catch (SQLException | IOException e) {
+            throw new RemoteException("Database error while fetching chat history page", e);
+        }
+    }
+
+    @Override
+    public List<Message> getChatHistoryAfter(String user1, String user2, int afterId, int limit) throws RemoteException {
+        try {
+            return messages.getChatHistoryAfter(user1, user2, afterId, clampPageSize(limit));
+        } catch (SQLException | IOException e) {
+            throw new RemoteException("Database error while fetching chat history page", e);
+        }
+    }
+
+    private static int clampPageSize(int limit) {
+        if (limit <= 0) {
+            return DatabaseConfig.CHAT_HISTORY_PAGE_SIZE;
+        }
+        return Math.min(limit, DatabaseConfig.CHAT_HISTORY_MAX_PAGE_SIZE);
+    }
+
+    @Override
+    public void saveMessage(Message message) throws RemoteException {
+        try {
+            messages.saveAll(Collections.singletonList(message));
+        } catch (SQLException | IOException e) {
+            throw new RemoteException("Database error while saving message", e);
+        }
+        indexer.submit(Collections.singletonList(message));
+    }
+
+    @Override
+    public int[] saveMessages(List<Message> batch) throws RemoteException {
+        try {
+            messages.saveAll(batch);
+        } catch (SQLException | IOException e) {
+            throw new RemoteException("Database error while saving " + batch.size() + " messages", e);
+        }
+        indexer.submit(batch);
+        int[] ids = new int[batch.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = batch.get(i).getId();
+        }
+        return ids;
+    }
+
+    @Override
+    public List<MessageSearchHit> searchMessages(String username, String query, int limit) throws RemoteException {
+        int clamped = limit <= 0 ? DatabaseConfig.SEARCH_PAGE_SIZE : Math.min(limit, DatabaseConfig.SEARCH_MAX_PAGE_SIZE);
+        return searchIndex.search(username, query, clamped);
+    }
+
+    @Override
+    public List<Conversation> getConversations(String username, int limit) throws RemoteException {
+        List<Conversation> conversations = new ArrayList<>();
+        try (Connection conn = getConnection()) {
+            String sql = "SELECT * FROM conversations WHERE owner_username = ? " +
+                    "ORDER BY last_message_id DESC LIMIT ?";
             PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, user.getId());
-            stmt.setInt(2, skillId);
-            stmt.executeUpdate();
+            stmt.setString(1, username);
+            stmt.setInt(2, clampConversationLimit(limit));
+
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                conversations.add(mapConversation(rs));
+            }
+        } catch (SQLException e) {
+            throw new RemoteException("Database error while fetching conversations", e);
         }
+        return conversations;
+    }
 
-        // Save skills to learn
-        for (String skill : user.getSkillsToLearn()) {
-            int skillId = getOrCreateSkillId(skill, conn);
-            String sql = "INSERT INTO user_skills_learn (user_id, skill_id) VALUES (?, ?)";
+    @Override
+    public void markConversationRead(String username, String partnerUsername) throws RemoteException {
+        try (Connection conn = getConnection()) {
+            String sql = "UPDATE conversations SET unread_count = 0 " +
+                    "WHERE owner_username = ? AND partner_username = ? AND unread_count > 0";
             PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, user.getId());
-            stmt.setInt(2, skillId);
+            stmt.setString(1, username);
+            stmt.setString(2, partnerUsername);
             stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new RemoteException("Database error while marking conversation read", e);
         }
     }
 
-    private void deleteUserSkills(int userId, Connection conn) throws SQLException {
-        String sql = "DELETE FROM user_skills_teach WHERE user_id = ?";
-        PreparedStatement stmt = conn.prepareStatement(sql);
-        stmt.setInt(1, userId);
-        stmt.executeUpdate();
+    private int clampConversationLimit(int limit) {
+        if (limit <= 0) {
+            return DatabaseConfig.CONVERSATION_PAGE_SIZE;
+        }
+        return Math.min(limit, DatabaseConfig.CONVERSATION_MAX_PAGE_SIZE);
+    }
 
-        sql = "DELETE FROM user_skills_learn WHERE user_id = ?";
-        stmt = conn.prepareStatement(sql);
-        stmt.setInt(1, userId);
-        stmt.executeUpdate();
+    // table is one of the fixed skill link tables, never user input
+    private void ensureSkillIndexLoaded(SkillIndex index, String table) throws SQLException {
+        if (index.isLoaded()) {
+            return;
+        }
+        try {
+            index.loadIfAbsent(() -> {
+                Map<Integer, List<String>> skillsByUser = new HashMap<>();
+                try (Connection conn = getConnection()) {
+                    String sql = "SELECT us.user_id, s.skill_name FROM " + table + " us " +
+                            "JOIN skills s ON s.id = us.skill_id";
+                    PreparedStatement stmt = conn.prepareStatement(sql);
+                    ResultSet rs = stmt.executeQuery();
+                    while (rs.next()) {
+                        skillsByUser.computeIfAbsent(rs.getInt("user_id"), k -> new ArrayList<>())
+                                .add(rs.getString("skill_name"));
+                    }
+                }
+                return skillsByUser;
+            });
+        } catch (SQLException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException("Failed to build skill index from " + table, e);
+        }
     }
 
-    private int getOrCreateSkillId(String skillName, Connection conn) throws SQLException {
-        // First try to get existing skill
-        String sql = "SELECT id FROM skills WHERE skill_name = ?";
-        PreparedStatement stmt = conn.prepareStatement(sql);
-        stmt.setString(1, skillName);
-        ResultSet rs = stmt.executeQuery();
+    private List<User> loadUsersByIds(int[] userIds, String excludedUsername, Connection conn) throws SQLException {
+        List<User> users = new ArrayList<>();
+        for (int from = 0; from < userIds.length; from += DatabaseConfig.SKILL_BATCH_SIZE) {
+            int to = Math.min(from + DatabaseConfig.SKILL_BATCH_SIZE, userIds.length);
+            int slots = paddedSlots(to - from);
+
+            String sql = "SELECT * FROM users WHERE username != ? AND id IN (" + placeholders(slots) + ") ORDER BY id";
+            PreparedStatement stmt = conn.prepareStatement(sql);
+            stmt.setString(1, excludedUsername);
+            for (int i = 0; i < slots; i++) {
+                stmt.setInt(i + 2, userIds[Math.min(from + i, to - 1)]);
+            }
 
-        if (rs.next()) {
-            return rs.getInt("id");
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                users.add(mapUser(rs));
+            }
+            rs.close();
         }
+        return users;
+    }
 
-        // Create new skill if it doesn't exist
-        sql = "INSERT INTO skills (skill_name) VALUES (?)";
-        stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-        stmt.setString(1, skillName);
-        stmt.executeUpdate();
+    private UserSummary mapUserSummary(ResultSet rs) throws SQLException {
+        UserSummary summary = new UserSummary();
+        summary.setId(rs.getInt("id"));
+        summary.setUsername(rs.getString("username"));
+        summary.setDisplayName(rs.getString("full_name"));
+        return summary;
+    }
 
-        rs = stmt.getGeneratedKeys();
-        if (rs.next()) {
-            return rs.getInt(1);
-        }
+    private Conversation mapConversation(ResultSet rs) throws SQLException {
+        Conversation conversation = new Conversation();
+        conversation.setPartnerUsername(rs.getString("partner_username"));
+        conversation.setLastMessageId(rs.getInt("last_message_id"));
+        conversation.setLastSenderUsername(rs.getString("last_sender_username"));
+        conversation.setLastTimestamp(rs.getTimestamp("last_timestamp").toLocalDateTime());
+        conversation.setPreview(rs.getString("preview"));
+        conversation.setUnreadCount(rs.getInt("unread_count"));
+        return conversation;
+    }
 
-        throw new SQLException("Failed to create skill: " + skillName);
+    private User mapUser(ResultSet rs) throws SQLException {
+        User user = new User();
+        user.setId(rs.getInt("id"));
+        user.setUsername(rs.getString("username"));
+        user.setEmail(rs.getString("email"));
+        user.setFullName(rs.getString("full_name"));
+        user.setBio(rs.getString("bio"));
+        user.setProfilePicture(rs.getString("profile_picture"));
+        user.setSocialLinks(rs.getString("social_links"));
+        return user;
     }
 
+    // Loads teach and learn skills for a whole batch of users with one query per
+    // SKILL_BATCH_SIZE ids, instead of two queries per user.
+    static void loadUserSkills(List<User> users, SkillDictionary skills, Connection conn) throws SQLException {
+        if (users.isEmpty()) {
+            return;
+        }
 
+        Map<Integer, User> usersById = new HashMap<>();
+        for (User user : users) {
+            user.setSkillsToTeach(new ArrayList<>());
+            user.setSkillsToLearn(new ArrayList<>());
+            usersById.put(user.getId(), user);
+        }
 
-    @Override
-    public List<Message> getAllUserMessages(String username) throws RemoteException {
-        List<Message> messages = new ArrayList<>();
-        try (Connection conn = getConnection()) {
-            String sql = "SELECT * FROM messages WHERE sender_username = ? OR receiver_username = ? ORDER BY timestamp DESC";
+        List<Integer> ids = new ArrayList<>(usersById.keySet());
+        for (int from = 0; from < ids.size(); from += DatabaseConfig.SKILL_BATCH_SIZE) {
+            List<Integer> chunk = ids.subList(from, Math.min(from + DatabaseConfig.SKILL_BATCH_SIZE, ids.size()));
+            int slots = paddedSlots(chunk.size());
+            String placeholders = placeholders(slots);
+
+            // Names come from the skill dictionary, so cached profiles share one copy of each
+            String sql = "SELECT user_id, skill_id, 'T' AS kind FROM user_skills_teach WHERE user_id IN (" +
+                    placeholders + ") " +
+                    "UNION ALL " +
+                    "SELECT user_id, skill_id, 'L' AS kind FROM user_skills_learn WHERE user_id IN (" +
+                    placeholders + ")";
             PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setString(1, username);
-            stmt.setString(2, username);
+            for (int i = 0; i < slots; i++) {
+                int id = chunk.get(Math.min(i, chunk.size() - 1));
+                stmt.setInt(i + 1, id);
+                stmt.setInt(slots + i + 1, id);
+            }
 
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
-                Message message = new Message();
-                message.setId(rs.getInt("id"));
-                message.setSenderUsername(rs.getString("sender_username"));
-                message.setReceiverUsername(rs.getString("receiver_username"));
-                message.setMessage(rs.getString("message"));
-                message.setTimestamp(rs.getTimestamp("timestamp").toLocalDateTime());
-                messages.add(message);
+                User user = usersById.get(rs.getInt("user_id"));
+                String skill = skills.nameOf(rs.getInt("skill_id"), conn);
+                if (skill == null) {
+                    continue;
+                }
+                if ("T".equals(rs.getString("kind"))) {
+                    user.getSkillsToTeach().add(skill);
+                } else {
+                    user.getSkillsToLearn().add(skill);
+                }
             }
-        } catch (SQLException e) {
+            rs.close();
+        }
+    }
+
+    // Pad IN-lists to a power of two so the statement cache only sees a handful of shapes
+    private static int paddedSlots(int count) {
+        int slots = Integer.highestOneBit(count);
+        if (slots < count) slots <<= 1;
+        return Math.min(slots, DatabaseConfig.SKILL_BATCH_SIZE);
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(",");
+            sb.append("?");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Makes the user's rows in table match the given skills. With replace
+     * set, only the difference to the current rows is written, so unchanged
+     * skills cost nothing; otherwise the user is known to have no rows yet.
+     */
+    private void saveUserSkills(int userId, String table, List<String> skills, Map<String, Integer> skillIds,
+                                boolean replace, Connection conn) throws SQLException {
+        Set<Integer> wanted = new LinkedHashSet<>();
+        for (String skill : skills) {
+            Integer skillId = skillIds.get(SkillDictionary.key(skill));
+            if (skillId != null) {
+                wanted.add(skillId);
+            }
+        }
+
+        Set<Integer> current = new HashSet<>();
+        if (replace) {
+            PreparedStatement stmt = conn.prepareStatement("SELECT skill_id FROM " + table + " WHERE user_id = ?");
+            stmt.setInt(1, userId);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                current.add(rs.getInt("skill_id"));
+            }
+            rs.close();
+        }
+
+        List<Integer> removed = new ArrayList<>(current);
+        removed.removeAll(wanted);
+        if (!removed.isEmpty()) {
+            PreparedStatement stmt = conn.prepareStatement("DELETE FROM " + table + " WHERE user_id = ? AND skill_id = ?");
+            for (int skillId : removed) {
+                stmt.setInt(1, userId);
+                stmt.setInt(2, skillId);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+
+        List<Integer> added = new ArrayList<>(wanted);
+        added.removeAll(current);
+        if (!added.isEmpty()) {
+            PreparedStatement stmt = conn.prepareStatement("INSERT INTO " + table + " (user_id, skill_id) VALUES (?, ?)");
+            for (int skillId : added) {
+                stmt.setInt(1, userId);
+                stmt.setInt(2, skillId);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    private Map<String, Integer> resolveSkillIds(User user, Connection conn) throws SQLException {
+        List<String> names = new ArrayList<>(user.getSkillsToTeach());
+        names.addAll(user.getSkillsToLearn());
+        return skills.resolve(names, conn);
+    }
+
+    @Override
+    public List<Message> getAllUserMessages(String username) throws RemoteException {
+        try {
+            return messages.getAllUserMessages(username);
+        } catch (SQLException | IOException e) {
             throw new RemoteException("Database error while fetching all user messages", e);
         }
-        return messages;
     }
 
     @Override
     public List<Blog> getAllBlogs() throws RemoteException {
         List<Blog> blogs = new ArrayList<>();
         String blogQuery = "SELECT b.*, u.username as author_name FROM Blog b JOIN users u ON b.user_id = u.id ORDER BY b.created_at DESC";
-        String categoryQuery = "SELECT c.id, c.name FROM Category c JOIN BlogCategory bc ON c.id = bc.category_id WHERE bc.blog_id = ?";
+        // Every blog is returned, so resolve all blog/category pairs at once rather than per blog
+        String categoryQuery = "SELECT bc.blog_id, c.id, c.name FROM BlogCategory bc JOIN Category c ON c.id = bc.category_id";
 
-        try (Connection conn = getConnection();
-             PreparedStatement blogStmt = conn.prepareStatement(blogQuery);
-             ResultSet blogRs = blogStmt.executeQuery()) {
-
-            while (blogRs.next()) {
-                Blog blog = new Blog();
-                blog.setId(blogRs.getInt("id"));
-                blog.setUserId(blogRs.getInt("user_id"));
-                blog.setAuthorName(blogRs.getString("author_name"));
-                blog.setTitle(blogRs.getString("title"));
-                blog.setContent(blogRs.getString("content"));
-                blog.setCreatedAt(blogRs.getTimestamp("created_at"));
-                blog.setUpdatedAt(blogRs.getTimestamp("updated_at"));
-
-                // Get categories for this blog
-                try (PreparedStatement categoryStmt = conn.prepareStatement(categoryQuery)) {
-                    categoryStmt.setInt(1, blog.getId());
-                    ResultSet categoryRs = categoryStmt.executeQuery();
-
-                    List<Category> categories = new ArrayList<>();
-                    while (categoryRs.next()) {
-                        Category category = new Category();
-                        category.setId(categoryRs.getInt("id"));
-                        category.setName(categoryRs.getString("name"));
-                        categories.add(category);
-                    }
-                    blog.setCategories(categories);
+        try (Connection conn = getConnection()) {
+            Map<Integer, List<Category>> categoriesByBlog = new HashMap<>();
+            try (PreparedStatement categoryStmt = conn.prepareStatement(categoryQuery);
+                 ResultSet categoryRs = categoryStmt.executeQuery()) {
+                while (categoryRs.next()) {
+                    Category category = new Category();
+                    category.setId(categoryRs.getInt("id"));
+                    category.setName(categoryRs.getString("name"));
+                    categoriesByBlog.computeIfAbsent(categoryRs.getInt("blog_id"), k -> new ArrayList<>()).add(category);
                 }
+            }
 
-                blogs.add(blog);
+            try (PreparedStatement blogStmt = conn.prepareStatement(blogQuery);
+                 ResultSet blogRs = blogStmt.executeQuery()) {
+                while (blogRs.next()) {
+                    Blog blog = new Blog();
+                    blog.setId(blogRs.getInt("id"));
+                    blog.setUserId(blogRs.getInt("user_id"));
+                    blog.setAuthorName(blogRs.getString("author_name"));
+                    blog.setTitle(blogRs.getString("title"));
+                    blog.setContent(blogRs.getString("content"));
+                    blog.setCreatedAt(blogRs.getTimestamp("created_at"));
+                    blog.setUpdatedAt(blogRs.getTimestamp("updated_at"));
+                    blog.setCategories(categoriesByBlog.getOrDefault(blog.getId(), new ArrayList<>()));
+
+                    blogs.add(blog);
+                }
             }
         } catch (SQLException e) {
             e.printStackTrace();
@@ -0,0 +1,159 @@
+package rmi;
+
+import config.DatabaseConfig;
+import db.ConnectionPool;
+import db.SkillDictionary;
+import models.User;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that loading skills for a list of users costs a fixed number of
+ * queries per SKILL_BATCH_SIZE users, however many users the list holds.
+ * Connections from the pool are wrapped in a proxy that counts every
+ * statement executed through them. The skills loaded for the real users
+ * are compared with a plain two-queries-per-user load.
+ *
+ * Needs the database from DatabaseConfig and reads it only. Lists larger
+ * than the users table are padded with ids that have no user, which cost
+ * the same queries and load no skills.
+ *
+ * Usage: java rmi.UserSkillsQueryCountTest [sizes]
+ * e.g.   java rmi.UserSkillsQueryCountTest 1,10,100,1000,5000
+ */
+public class UserSkillsQueryCountTest {
+
+    public static void main(String[] args) throws Exception {
+        String[] sizes = (args.length > 0 ? args[0] : "1,10,100,1000,5000").split(",");
+        try (ConnectionPool pool = new ConnectionPool()) {
+            SkillDictionary skills = new SkillDictionary();
+            try (Connection conn = pool.getConnection()) {
+                skills.load(conn);
+            }
+
+            System.out.printf("%8s %8s %8s%n", "users", "queries", "expected");
+            for (String size : sizes) {
+                int count = Integer.parseInt(size.trim());
+                List<User> users = users(pool, count);
+                AtomicInteger queries = new AtomicInteger();
+                try (Connection conn = counting(pool.getConnection(), queries)) {
+                    SkillSwapServiceImpl.loadUserSkills(users, skills, conn);
+                }
+                int expected = (count + DatabaseConfig.SKILL_BATCH_SIZE - 1) / DatabaseConfig.SKILL_BATCH_SIZE;
+                System.out.printf("%8d %8d %8d%n", count, queries.get(), expected);
+                check(queries.get() == expected, count + " users took " + queries.get() + " queries, expected " + expected);
+                verify(pool, skills, users);
+            }
+        }
+        System.out.println("OK");
+    }
+
+    // The first users by id, padded with ids past the last one
+    private static List<User> users(ConnectionPool pool, int count) throws SQLException {
+        List<User> users = new ArrayList<>(count);
+        int lastId = 0;
+        try (Connection conn = pool.getConnection()) {
+            PreparedStatement stmt = conn.prepareStatement("SELECT id FROM users ORDER BY id LIMIT ?");
+            stmt.setInt(1, count);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    lastId = rs.getInt("id");
+                    users.add(user(lastId));
+                }
+            }
+        }
+        while (users.size() < count) {
+            users.add(user(++lastId));
+        }
+        return users;
+    }
+
+    private static User user(int id) {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+
+    private static void verify(ConnectionPool pool, SkillDictionary skills, List<User> users) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            for (User user : users) {
+                check(sorted(user.getSkillsToTeach()).equals(skillsOf(user, "user_skills_teach", skills, conn)),
+                        "skills to teach of user " + user.getId());
+                check(sorted(user.getSkillsToLearn()).equals(skillsOf(user, "user_skills_learn", skills, conn)),
+                        "skills to learn of user " + user.getId());
+            }
+        }
+    }
+
+    private static List<String> skillsOf(User user, String table, SkillDictionary skills, Connection conn)
+            throws SQLException {
+        List<String> names = new ArrayList<>();
+        PreparedStatement stmt = conn.prepareStatement("SELECT skill_id FROM " + table + " WHERE user_id = ?");
+        stmt.setInt(1, user.getId());
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                String name = skills.nameOf(rs.getInt("skill_id"), conn);
+                if (name != null) {
+                    names.add(name);
+                }
+            }
+        }
+        return sorted(names);
+    }
+
+    private static List<String> sorted(List<String> names) {
+        List<String> copy = new ArrayList<>(names);
+        Collections.sort(copy);
+        return copy;
+    }
+
+    // Counts every statement execution made through the connection
+    private static Connection counting(Connection conn, AtomicInteger queries) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+                    Object result = invoke(conn, method, args);
+                    if (result instanceof PreparedStatement) {
+                        return wrap(result, PreparedStatement.class, queries);
+                    }
+                    if (result instanceof Statement) {
+                        return wrap(result, Statement.class, queries);
+                    }
+                    return result;
+                });
+    }
+
+    private static Object wrap(Object statement, Class<?> type, AtomicInteger queries) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getName().startsWith("execute")) {
+                queries.incrementAndGet();
+            }
+            return invoke(statement, method, args);
+        };
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package search;
+
+import config.DatabaseConfig;
+import db.MessageRepository;
+import models.Message;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a MessageSearchIndex up to date on its own thread, so saving a
+ * message never waits for indexing. Messages saved through the service are
+ * handed over directly. Everything else, such as what existed at startup and
+ * what the chat server writes straight to the database, is picked up by
+ * tailing the repository in id order. The tail re-reads the last
+ * SEARCH_TAIL_OVERLAP ids each time, because concurrent writers can commit
+ * out of id order; the index skips what it already has.
+ */
+public class MessageIndexer {
+    private final MessageRepository repository;
+    private final MessageSearchIndex index;
+    private final BlockingQueue<List<Message>> handedOver =
+            new ArrayBlockingQueue<>(DatabaseConfig.SEARCH_HANDOFF_CAPACITY);
+    private final Thread worker;
+    private volatile boolean running = true;
+    private int tailedId;
+
+    public MessageIndexer(MessageRepository repository, MessageSearchIndex index) {
+        this.repository = repository;
+        this.index = index;
+        this.worker = new Thread(this::run, "message-indexer");
+        worker.setDaemon(true);
+    }
+
+    public void start() {
+        worker.start();
+    }
+
+    /** Never blocks; if the indexer is far behind, the tail picks the messages up instead. */
+    public void submit(List<Message> messages) {
+        handedOver.offer(new ArrayList<>(messages));
+    }
+
+    public void close() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        tail();
+        System.out.println("Search index: " + index.size() + " messages");
+        long nextTail = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DatabaseConfig.SEARCH_TAIL_INTERVAL_MS);
+        while (running) {
+            try {
+                long waitNanos = nextTail - System.nanoTime();
+                List<Message> messages = waitNanos > 0 ? handedOver.poll(waitNanos, TimeUnit.NANOSECONDS) : null;
+                if (messages != null) {
+                    index.addAll(messages);
+                    continue;
+                }
+                tail();
+                nextTail = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DatabaseConfig.SEARCH_TAIL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                // close() ends the loop
+            }
+        }
+    }
+
+    private void tail() {
+        int afterId = Math.max(0, tailedId - DatabaseConfig.SEARCH_TAIL_OVERLAP);
+        try {
+            List<Message> page;
+            do {
+                page = repository.getMessagesAfter(afterId, DatabaseConfig.SEARCH_TAIL_BATCH_SIZE);
+                if (!page.isEmpty()) {
+                    index.addAll(page);
+                    afterId = page.get(page.size() - 1).getId();
+                    tailedId = Math.max(tailedId, afterId);
+                }
+            } while (running && page.size() == DatabaseConfig.SEARCH_TAIL_BATCH_SIZE);
+        } catch (SQLException | IOException e) {
+            System.err.println("Error updating search index: " + e.getMessage());
+        }
+    }
+}
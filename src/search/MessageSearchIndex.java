@@ -0,0 +1,346 @@
+package search;
+
+import config.DatabaseConfig;
+import models.Message;
+import models.MessageSearchHit;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory full-text index over chat messages. Every conversation has its
+ * own positional inverted index, so a search only visits the conversations
+ * the user takes part in and can never return anyone else's messages.
+ *
+ * A query is a list of words that must all occur in a message; words in
+ * double quotes must occur next to each other in that order. Hits are ranked
+ * with BM25 using statistics over the whole index, newest first on ties.
+ */
+public class MessageSearchIndex {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final Map<String, Postings> conversations = new HashMap<>();
+    private final Map<String, Set<String>> conversationsByUser = new HashMap<>();
+    // Messages containing each term, across all conversations
+    private final Map<String, Integer> documentFrequency = new HashMap<>();
+    private final BitSet indexed = new BitSet();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int documents;
+    private long totalTokens;
+
+    /** Adds the messages that are not indexed yet and returns how many that were. */
+    public int addAll(Collection<Message> messages) {
+        lock.writeLock().lock();
+        try {
+            int added = 0;
+            for (Message message : messages) {
+                if (message.getId() > 0 && !indexed.get(message.getId())) {
+                    add(message);
+                    indexed.set(message.getId());
+                    added++;
+                }
+            }
+            return added;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void add(Message message) {
+        String sender = message.getSenderUsername();
+        String receiver = message.getReceiverUsername();
+        String key = conversationKey(sender, receiver);
+        Postings postings = conversations.get(key);
+        if (postings == null) {
+            postings = new Postings();
+            conversations.put(key, postings);
+            conversationsByUser.computeIfAbsent(sender, u -> new HashSet<>()).add(key);
+            conversationsByUser.computeIfAbsent(receiver, u -> new HashSet<>()).add(key);
+        }
+
+        List<Token> tokens = tokenize(message.getMessage());
+        Map<String, List<Integer>> positions = new HashMap<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            positions.computeIfAbsent(tokens.get(i).term, t -> new ArrayList<>()).add(i);
+        }
+        for (Map.Entry<String, List<Integer>> entry : positions.entrySet()) {
+            int[] termPositions = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+            postings.byTerm.computeIfAbsent(entry.getKey(), t -> new TermPostings()).add(message.getId(), termPositions);
+            documentFrequency.merge(entry.getKey(), 1, Integer::sum);
+        }
+        postings.messages.put(message.getId(), new IndexedMessage(message, tokens.size()));
+        documents++;
+        totalTokens += tokens.size();
+    }
+
+    /** Best matches first, only from conversations the user is part of. */
+    public List<MessageSearchHit> search(String username, String query, int limit) {
+        List<List<String>> clauses = parse(query);
+        if (clauses.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        Set<String> terms = new LinkedHashSet<>();
+        for (List<String> clause : clauses) {
+            terms.addAll(clause);
+        }
+
+        lock.readLock().lock();
+        try {
+            double averageLength = documents > 0 ? (double) totalTokens / documents : 1;
+            Map<String, Double> idf = new HashMap<>();
+            for (String term : terms) {
+                int df = documentFrequency.getOrDefault(term, 0);
+                idf.put(term, Math.log(1 + (documents - df + 0.5) / (df + 0.5)));
+            }
+
+            // Weakest hit on top, so it is the one dropped when a better one turns up
+            PriorityQueue<ScoredMessage> top = new PriorityQueue<>(limit + 1, (a, b) -> a.score != b.score
+                    ? Double.compare(a.score, b.score) : Integer.compare(a.message.id, b.message.id));
+            for (String key : conversationsByUser.getOrDefault(username, Collections.emptySet())) {
+                Postings postings = conversations.get(key);
+                List<TermPostings> lists = new ArrayList<>(terms.size());
+                for (String term : terms) {
+                    TermPostings list = postings.byTerm.get(term);
+                    if (list == null) {
+                        lists = null;
+                        break;
+                    }
+                    lists.add(list);
+                }
+                if (lists == null) {
+                    continue;
+                }
+
+                // Walk the rarest term and look the message up in the other lists
+                TermPostings rarest = Collections.min(lists, (a, b) -> Integer.compare(a.size, b.size));
+                candidates:
+                for (int i = 0; i < rarest.size; i++) {
+                    int id = rarest.ids[i];
+                    Map<String, int[]> found = new HashMap<>();
+                    int t = 0;
+                    for (String term : terms) {
+                        int[] positions = lists.get(t++).positionsOf(id);
+                        if (positions == null) {
+                            continue candidates;
+                        }
+                        found.put(term, positions);
+                    }
+                    for (List<String> clause : clauses) {
+                        if (clause.size() > 1 && !containsPhrase(clause, found)) {
+                            continue candidates;
+                        }
+                    }
+
+                    IndexedMessage message = postings.messages.get(id);
+                    double score = 0;
+                    for (String term : terms) {
+                        int tf = found.get(term).length;
+                        score += idf.get(term) * tf * (K1 + 1)
+                                / (tf + K1 * (1 - B + B * message.length / averageLength));
+                    }
+                    top.add(new ScoredMessage(message, score, found));
+                    if (top.size() > limit) {
+                        top.poll();
+                    }
+                }
+            }
+
+            List<MessageSearchHit> hits = new ArrayList<>(top.size());
+            while (!top.isEmpty()) {
+                hits.add(toHit(top.poll()));
+            }
+            Collections.reverse(hits);
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static boolean containsPhrase(List<String> phrase, Map<String, int[]> found) {
+        for (int start : found.get(phrase.get(0))) {
+            int i = 1;
+            while (i < phrase.size() && Arrays.binarySearch(found.get(phrase.get(i)), start + i) >= 0) {
+                i++;
+            }
+            if (i == phrase.size()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static MessageSearchHit toHit(ScoredMessage scored) {
+        IndexedMessage message = scored.message;
+        MessageSearchHit hit = new MessageSearchHit();
+        hit.setMessageId(message.id);
+        hit.setSenderUsername(message.sender);
+        hit.setReceiverUsername(message.receiver);
+        hit.setTimestamp(message.timestamp);
+        hit.setScore(scored.score);
+
+        // Centre the snippet on the earliest matching word
+        int first = Integer.MAX_VALUE;
+        for (int[] positions : scored.positions.values()) {
+            first = Math.min(first, positions[0]);
+        }
+        hit.setSnippet(snippet(message.text, tokenize(message.text).get(first).start));
+        return hit;
+    }
+
+    private static String snippet(String text, int matchStart) {
+        int length = DatabaseConfig.SEARCH_SNIPPET_CHARS;
+        if (text.length() <= length) {
+            return text;
+        }
+        int from = Math.max(0, Math.min(matchStart - length / 3, text.length() - length));
+        int to = from + length;
+        // Don't start inside a word
+        while (from > 0 && from < matchStart && Character.isLetterOrDigit(text.charAt(from - 1))) {
+            from++;
+        }
+        return (from > 0 ? "..." : "") + text.substring(from, to).trim() + (to < text.length() ? "..." : "");
+    }
+
+    // Words outside quotes are clauses of one term; a quoted phrase is one clause
+    static List<List<String>> parse(String query) {
+        List<List<String>> clauses = new ArrayList<>();
+        if (query == null) {
+            return clauses;
+        }
+        String[] parts = query.split("\"", -1);
+        for (int i = 0; i < parts.length; i++) {
+            List<String> terms = new ArrayList<>();
+            for (Token token : tokenize(parts[i])) {
+                terms.add(token.term);
+            }
+            if (i % 2 == 1 && terms.size() > 1) {
+                clauses.add(terms);
+            } else {
+                for (String term : terms) {
+                    clauses.add(Collections.singletonList(term));
+                }
+            }
+        }
+        return clauses;
+    }
+
+    // Runs of letters and digits, lower-cased
+    static List<Token> tokenize(String text) {
+        List<Token> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            int codePoint = text.codePointAt(i);
+            if (!Character.isLetterOrDigit(codePoint)) {
+                i += Character.charCount(codePoint);
+                continue;
+            }
+            int start = i;
+            while (i < text.length() && Character.isLetterOrDigit(codePoint = text.codePointAt(i))) {
+                i += Character.charCount(codePoint);
+            }
+            tokens.add(new Token(text.substring(start, i).toLowerCase(Locale.ROOT), start));
+        }
+        return tokens;
+    }
+
+    private static String conversationKey(String user1, String user2) {
+        return user1.compareTo(user2) <= 0 ? user1 + '\0' + user2 : user2 + '\0' + user1;
+    }
+
+    static final class Token {
+        final String term;
+        final int start;
+
+        Token(String term, int start) {
+            this.term = term;
+            this.start = start;
+        }
+    }
+
+    private static final class Postings {
+        final Map<String, TermPostings> byTerm = new HashMap<>();
+        final Map<Integer, IndexedMessage> messages = new HashMap<>();
+    }
+
+    /** Message ids in ascending order, each with the positions of the term in that message. */
+    private static final class TermPostings {
+        int[] ids = new int[2];
+        int[][] positions = new int[2][];
+        int size;
+
+        void add(int id, int[] termPositions) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            // Messages almost always arrive in id order; the tail of the database may deliver one late
+            int at = size;
+            while (at > 0 && ids[at - 1] > id) {
+                at--;
+            }
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            System.arraycopy(positions, at, positions, at + 1, size - at);
+            ids[at] = id;
+            positions[at] = termPositions;
+            size++;
+        }
+
+        int[] positionsOf(int id) {
+            int at = Arrays.binarySearch(ids, 0, size, id);
+            return at >= 0 ? positions[at] : null;
+        }
+    }
+
+    private static final class IndexedMessage {
+        final int id;
+        final String sender;
+        final String receiver;
+        final LocalDateTime timestamp;
+        final String text;
+        final int length;
+
+        IndexedMessage(Message message, int length) {
+            this.id = message.getId();
+            this.sender = message.getSenderUsername();
+            this.receiver = message.getReceiverUsername();
+            this.timestamp = message.getTimestamp();
+            this.text = message.getMessage();
+            this.length = length;
+        }
+    }
+
+    private static final class ScoredMessage {
+        final IndexedMessage message;
+        final double score;
+        final Map<String, int[]> positions;
+
+        ScoredMessage(IndexedMessage message, double score, Map<String, int[]> positions) {
+            this.message = message;
+            this.score = score;
+            this.positions = positions;
+        }
+    }
+}
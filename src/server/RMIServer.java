@@ -1,7 +1,6 @@
 package server;
 
 import config.DatabaseConfig;
-import rmi.SkillSwapService;
 import rmi.SkillSwapServiceImpl;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
@@ -10,7 +9,8 @@ public class RMIServer {
     public static void main(String[] args) {
         try {
 
-            SkillSwapService service = new SkillSwapServiceImpl();
+            SkillSwapServiceImpl service = new SkillSwapServiceImpl();
+            Runtime.getRuntime().addShutdownHook(new Thread(service::shutdown));
 
             Registry registry = LocateRegistry.createRegistry(DatabaseConfig.RMI_PORT);
 
@@ -21,8 +21,13 @@ public class RMIServer {
             System.out.println("Service bound as: " + DatabaseConfig.RMI_SERVICE_NAME);
             System.out.println("Server is ready to accept connections...");
 
+            int ticks = 0;
             while (true) {
                 Thread.sleep(1000);
+                if (++ticks % 60 == 0) {
+                    System.out.println("DB pool: " + service.getPoolStats());
+                    System.out.println("Profile cache: " + service.getProfileCacheStats());
+                }
             }
 
         } catch (Exception e) {
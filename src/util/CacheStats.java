@@ -0,0 +1,64 @@
+package util;
+
+import java.io.Serializable;
+
+public class CacheStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int size;
+    private final long weight;
+    private final long maxWeight;
+    private final long hitCount;
+    private final long missCount;
+    private final long loadCount;
+    private final long loadFailureCount;
+    private final long evictionCount;
+    private final long averageLoadMicros;
+    private final long maxLoadMicros;
+
+    public CacheStats(int size, long weight, long maxWeight, long hitCount, long missCount, long loadCount,
+                      long loadFailureCount, long evictionCount, long averageLoadMicros, long maxLoadMicros) {
+        this.size = size;
+        this.weight = weight;
+        this.maxWeight = maxWeight;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadCount = loadCount;
+        this.loadFailureCount = loadFailureCount;
+        this.evictionCount = evictionCount;
+        this.averageLoadMicros = averageLoadMicros;
+        this.maxLoadMicros = maxLoadMicros;
+    }
+
+    // Getters
+    public int getSize() { return size; }
+    public long getWeight() { return weight; }
+    public long getMaxWeight() { return maxWeight; }
+    public long getHitCount() { return hitCount; }
+    public long getMissCount() { return missCount; }
+    public long getLoadCount() { return loadCount; }
+    public long getLoadFailureCount() { return loadFailureCount; }
+    public long getEvictionCount() { return evictionCount; }
+    public long getAverageLoadMicros() { return averageLoadMicros; }
+    public long getMaxLoadMicros() { return maxLoadMicros; }
+
+    public double getHitRatio() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 0 : (double) hitCount / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{size=" + size +
+                ", weight=" + weight +
+                ", maxWeight=" + maxWeight +
+                ", hitRatio=" + String.format("%.3f", getHitRatio()) +
+                ", hits=" + hitCount +
+                ", misses=" + missCount +
+                ", loads=" + loadCount +
+                ", loadFailures=" + loadFailureCount +
+                ", evictions=" + evictionCount +
+                ", avgLoadUs=" + averageLoadMicros +
+                ", maxLoadUs=" + maxLoadMicros + "}";
+    }
+}
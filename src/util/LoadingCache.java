@@ -0,0 +1,207 @@
+package util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+
+/**
+ * Bounded read-through cache. Every value is weighed when it is stored and
+ * the least recently used entries are evicted once the total weight passes
+ * maxWeight, so a few large values cannot crowd out memory the way a
+ * count-bounded cache would let them.
+ *
+ * Concurrent misses for the same key share one load. A load that overlaps an
+ * invalidation still answers its callers but is not stored, so a value read
+ * before a write never outlives the write. Null values are never stored.
+ *
+ * The lock is a ReentrantLock rather than a monitor and is never held while
+ * loading, so a slow load cannot pin a virtual thread's carrier.
+ */
+public final class LoadingCache<K, V> {
+    public interface Loader<K, V> {
+        V load(K key) throws Exception;
+    }
+
+    private final Loader<K, V> loader;
+    private final ToIntFunction<V> weigher;
+    private final long maxWeight;
+    private final long expireNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Access-ordered, so iteration starts at the least recently used entry; guarded by lock
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+    private long weight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder totalLoadNanos = new LongAdder();
+    private final AtomicLong maxLoadNanos = new AtomicLong();
+    private final LongAdder evictions = new LongAdder();
+
+    public LoadingCache(Loader<K, V> loader, ToIntFunction<V> weigher, long maxWeight, long expireAfter, TimeUnit unit) {
+        this.loader = loader;
+        this.weigher = weigher;
+        this.maxWeight = maxWeight;
+        this.expireNanos = unit.toNanos(expireAfter);
+    }
+
+    public V get(K key) throws Exception {
+        V cached = getIfPresent(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> pending = loading.putIfAbsent(key, load);
+        if (pending != null) {
+            return await(pending);
+        }
+        // Another load may have finished between the lookup and the registration
+        cached = getIfPresent(key);
+        if (cached != null) {
+            loading.remove(key, load);
+            load.complete(cached);
+            return cached;
+        }
+
+        long start = System.nanoTime();
+        V value;
+        try {
+            value = loader.load(key);
+        } catch (Exception e) {
+            loadFailures.increment();
+            loading.remove(key, load);
+            load.completeExceptionally(e);
+            throw e;
+        }
+        recordLoad(System.nanoTime() - start);
+
+        lock.lock();
+        try {
+            // Gone from loading means an invalidation overlapped this load
+            if (loading.remove(key, load) && value != null) {
+                store(key, value);
+            }
+        } finally {
+            lock.unlock();
+        }
+        load.complete(value);
+        return value;
+    }
+
+    public V getIfPresent(K key) {
+        lock.lock();
+        try {
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.nanoTime() - entry.storedNanos > expireNanos) {
+                remove(key);
+                return null;
+            }
+            return entry.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidate(K key) {
+        lock.lock();
+        try {
+            loading.remove(key);
+            remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public CacheStats getStats() {
+        int size;
+        long currentWeight;
+        lock.lock();
+        try {
+            size = entries.size();
+            currentWeight = weight;
+        } finally {
+            lock.unlock();
+        }
+        long loadCount = loads.sum();
+        return new CacheStats(size, currentWeight, maxWeight, hits.sum(), misses.sum(), loadCount,
+                loadFailures.sum(), evictions.sum(),
+                loadCount == 0 ? 0 : totalLoadNanos.sum() / loadCount / 1000, maxLoadNanos.get() / 1000);
+    }
+
+    private void recordLoad(long nanos) {
+        loads.increment();
+        totalLoadNanos.add(nanos);
+        maxLoadNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    // Caller holds lock
+    private void store(K key, V value) {
+        Entry<V> entry = new Entry<>(value, Math.max(1, weigher.applyAsInt(value)), System.nanoTime());
+        if (entry.weight > maxWeight) {
+            return;
+        }
+        Entry<V> previous = entries.put(key, entry);
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+        weight += entry.weight;
+
+        Iterator<Entry<V>> eldest = entries.values().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            weight -= eldest.next().weight;
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    // Caller holds lock
+    private void remove(K key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry != null) {
+            weight -= entry.weight;
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> pending) throws Exception {
+        try {
+            return pending.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final int weight;
+        final long storedNanos;
+
+        Entry(V value, int weight, long storedNanos) {
+            this.value = value;
+            this.weight = weight;
+            this.storedNanos = storedNanos;
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package util;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of memory-mapped, pre-sized segment files. Each record
+ * is an int32 body length, an int32 CRC32 of the body, then the body; what
+ * the body holds, and any index over the records, belongs to the owner.
+ * A record's position packs its segment id and offset into one long.
+ *
+ * On open every segment is replayed up to its first torn or corrupt record;
+ * positions past that point read as missing, and writing resumes in a new
+ * segment, so nothing is ever appended after a torn record. The oldest
+ * segments can be retired; the sync thread unmaps them and deletes their
+ * files, so the disk space comes back at once rather than whenever the
+ * buffer happens to be collected.
+ *
+ * The owner serializes appends, rolls, retires and reads with its own lock.
+ * sync() is meant for a background thread and never takes that lock: writes
+ * only mark segments dirty, and forcing happens without blocking them.
+ */
+public final class SegmentedLog {
+    public static final long NO_POSITION = -1;
+    // Length and CRC
+    public static final int RECORD_HEADER = 8;
+
+    // sun.misc.Unsafe.invokeCleaner (JDK 9+); null where unavailable, leaving unmapping to the garbage collector
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    /** Receives each intact record during replay, oldest first. */
+    public interface RecordVisitor {
+        void visit(long position, ByteBuffer body);
+    }
+
+    private final Path directory;
+    private final String suffix;
+    private final int segmentBytes;
+    private final int minBodyLength;
+    private final CRC32 crc = new CRC32();
+    // Held for the log's lifetime; two processes sharing a directory would corrupt each other's log
+    private final FileChannel lockChannel;
+    // Oldest first, consecutive ids; replaced rather than modified, so sync() can walk it unlocked
+    private volatile Segment[] segments = new Segment[0];
+    // Retired segments waiting for sync() to unmap and delete them
+    private final Queue<Segment> retired = new ConcurrentLinkedQueue<>();
+    // Forces and unmaps never overlap
+    private final ReentrantLock syncLock = new ReentrantLock();
+    // Null until the first roll(), so nothing is appended to a replayed segment
+    private Segment active;
+
+    public SegmentedLog(Path directory, String suffix, int segmentBytes, int minBodyLength) throws IOException {
+        this.directory = directory;
+        this.suffix = suffix;
+        this.segmentBytes = segmentBytes;
+        this.minBodyLength = minBodyLength;
+
+        Files.createDirectories(directory);
+        lockChannel = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock fileLock;
+        try {
+            fileLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by another log in this JVM
+            fileLock = null;
+        }
+        if (fileLock == null) {
+            lockChannel.close();
+            throw new IOException(directory + " is in use by another server");
+        }
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + suffix)) {
+            for (Path file : stream) {
+                if (idOf(file) >= 0) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort((a, b) -> Long.compare(idOf(a), idOf(b)));
+        Segment[] opened = new Segment[files.size()];
+        try {
+            // Segments are only ever deleted oldest first, so the ids have no gaps
+            for (int i = 0; i < opened.length; i++) {
+                opened[i] = Segment.open(files.get(i), idOf(files.get(i)), segmentBytes);
+            }
+        } catch (IOException e) {
+            for (Segment segment : opened) {
+                if (segment != null) {
+                    segment.close();
+                }
+            }
+            lockChannel.close();
+            throw e;
+        }
+        segments = opened;
+    }
+
+    /**
+     * Hands every intact record to the visitor. New records go to a new
+     * segment, which the owner starts with roll() once fits() says so.
+     */
+    public void replay(RecordVisitor visitor) {
+        for (Segment segment : segments) {
+            MappedByteBuffer buffer = segment.buffer;
+            int offset = 0;
+            while (offset + RECORD_HEADER <= buffer.capacity()) {
+                int bodyLength = buffer.getInt(offset);
+                if (bodyLength < minBodyLength || offset + RECORD_HEADER + bodyLength > buffer.capacity()) {
+                    break;
+                }
+                ByteBuffer body = buffer.duplicate();
+                body.position(offset + RECORD_HEADER);
+                body.limit(offset + RECORD_HEADER + bodyLength);
+                crc.reset();
+                crc.update(body.duplicate());
+                if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                    break;
+                }
+                visitor.visit(position(segment.id, offset), body);
+                offset += RECORD_HEADER + bodyLength;
+            }
+            segment.end = offset;
+        }
+    }
+
+    // False before the first roll() and whenever the active segment is too full
+    public boolean fits(int bodyLength) {
+        return active != null && segmentBytes - active.end >= RECORD_HEADER + bodyLength;
+    }
+
+    public boolean canHold(int bodyLength) {
+        return RECORD_HEADER + bodyLength <= segmentBytes;
+    }
+
+    /** Starts a new segment; the previous one is left to sync() like any other. */
+    public void roll() throws IOException {
+        Segment[] current = segments;
+        long id = current.length == 0 ? 1 : current[current.length - 1].id + 1;
+        Segment segment = Segment.open(fileOf(id), id, segmentBytes);
+        Segment[] grown = Arrays.copyOf(current, current.length + 1);
+        grown[current.length] = segment;
+        segments = grown;
+        active = segment;
+    }
+
+    /** Writes the body, from its position to its limit, and returns the record's position. */
+    public long append(ByteBuffer body) throws IOException {
+        int bodyLength = body.remaining();
+        if (!fits(bodyLength)) {
+            throw new IOException("Record does not fit the active segment of " + directory);
+        }
+        crc.reset();
+        crc.update(body.duplicate());
+        int offset = active.end;
+        ByteBuffer out = active.buffer.duplicate();
+        out.position(offset);
+        out.putInt(bodyLength).putInt((int) crc.getValue()).put(body);
+        active.end = out.position();
+        active.dirty = true;
+        return position(active.id, offset);
+    }
+
+    /** The body of the record at the position, or null if the record was lost or retired. */
+    public ByteBuffer read(long position) throws IOException {
+        Segment segment = segmentAt(position);
+        int offset = (int) position;
+        if (segment == null || offset + RECORD_HEADER > segment.end) {
+            return null;
+        }
+        ByteBuffer body = segment.buffer.duplicate();
+        int bodyLength = body.getInt(offset);
+        if (bodyLength < minBodyLength || offset + RECORD_HEADER + bodyLength > segment.end) {
+            throw new IOException("Corrupt record at " + segment.path + ":" + offset);
+        }
+        body.position(offset + RECORD_HEADER);
+        body.limit(offset + RECORD_HEADER + bodyLength);
+        return body;
+    }
+
+    /**
+     * Position of the record after the given one, or NO_POSITION at the end
+     * of the log. A position in a retired segment continues at the oldest
+     * record left.
+     */
+    public long next(long position) {
+        Segment[] current = segments;
+        Segment segment = segmentAt(position);
+        if (segment == null) {
+            return first();
+        }
+        int offset = (int) position + RECORD_HEADER + segment.buffer.getInt((int) position);
+        int index = (int) (segment.id - current[0].id);
+        while (offset >= current[index].end) {
+            if (++index == current.length) {
+                return NO_POSITION;
+            }
+            offset = 0;
+        }
+        return position(current[index].id, offset);
+    }
+
+    /** Position of the oldest record still in the log, or NO_POSITION if it is empty. */
+    public long first() {
+        for (Segment segment : segments) {
+            if (segment.end > 0) {
+                return position(segment.id, 0);
+            }
+        }
+        return NO_POSITION;
+    }
+
+    public int segmentCount() {
+        return segments.length;
+    }
+
+    // Id of the oldest segment, or -1 if there is none
+    public long oldestSegment() {
+        Segment[] current = segments;
+        return current.length > 0 ? current[0].id : -1;
+    }
+
+    public long activeSegment() {
+        return active != null ? active.id : -1;
+    }
+
+    public static long segmentOf(long position) {
+        return position >>> 32;
+    }
+
+    /**
+     * Drops the oldest segment. Its records must no longer be reachable from
+     * the owner's index; the file goes with the next sync(). If it was the
+     * active segment, roll() must be called before the next append.
+     */
+    public void retireOldest() {
+        Segment[] current = segments;
+        if (current.length == 0) {
+            return;
+        }
+        Segment oldest = current[0];
+        segments = Arrays.copyOfRange(current, 1, current.length);
+        if (oldest == active) {
+            active = null;
+        }
+        retired.add(oldest);
+    }
+
+    /**
+     * Forces the segments written since the last sync, then unmaps and
+     * deletes the retired ones. Only this method and close() touch segments
+     * outside the owner's lock, so no segment is unmapped during a force.
+     */
+    public void sync() {
+        syncLock.lock();
+        try {
+            for (Segment segment : segments) {
+                if (segment.dirty) {
+                    // Cleared first, so a write during the force marks the segment again
+                    segment.dirty = false;
+                    segment.buffer.force();
+                }
+            }
+            Segment segment;
+            while ((segment = retired.poll()) != null) {
+                segment.delete();
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    public void close() {
+        syncLock.lock();
+        try {
+            sync();
+            for (Segment segment : segments) {
+                segment.close();
+                segment.unmap();
+            }
+            segments = new Segment[0];
+            active = null;
+            lockChannel.close();
+        } catch (IOException e) {
+            System.err.println("Error releasing " + directory + ": " + e.getMessage());
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private Segment segmentAt(long position) {
+        Segment[] current = segments;
+        if (position < 0 || current.length == 0) {
+            return null;
+        }
+        long index = segmentOf(position) - current[0].id;
+        return index >= 0 && index < current.length ? current[(int) index] : null;
+    }
+
+    // The id in a segment file name, or -1 if the file is not a segment
+    private long idOf(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Path fileOf(long id) {
+        return directory.resolve(String.format("%016d", id) + suffix);
+    }
+
+    private static long position(long segment, int offset) {
+        return (segment << 32) | offset;
+    }
+
+    private static final class Segment {
+        final long id;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        // Offset just past the last intact record
+        int end;
+        volatile boolean dirty;
+
+        private Segment(long id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment open(Path path, long id, int segmentBytes) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            try {
+                long size = Math.max(channel.size(), segmentBytes);
+                return new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing log segment " + path + ": " + e.getMessage());
+            }
+        }
+
+        // The buffer must not be used again
+        void unmap() {
+            if (INVOKE_CLEANER != null) {
+                try {
+                    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                } catch (ReflectiveOperationException e) {
+                    System.err.println("Error unmapping log segment " + path + ": " + e.getMessage());
+                }
+            }
+        }
+
+        void delete() {
+            close();
+            unmap();
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                System.err.println("Error deleting log segment " + path + ": " + e.getMessage());
+            }
+        }
+    }
+}